@@ -0,0 +1,138 @@
+package benchmarks;
+
+import core.memory.DiskPageDumper;
+import core.memory.StorageMode;
+import core.page.PageDumper;
+import core.search.Key;
+import core.search.Value;
+import core.search.btree.BTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Point operations on a tree that is bulk loaded before each trial.
+Writes keep the tree size steady: update overwrites a stored key, insertDelete adds a new key and removes it again.
+The node cache is kept small, so reads on the bigger trees reach the dumper.
+Larger pages make the tree shallower, at the cost of more bytes moved and searched per node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BTreeBenchmark {
+    private static final int LOOKUP_COUNT = 1 << 16;
+
+    public enum Storage {
+        HEAP, DISK;
+
+        PageDumper open(Path file, int pageSize) throws IOException {
+            return this == HEAP ? new HeapPageDumper(pageSize) : new DiskPageDumper(file, StorageMode.IN_PLACE, pageSize);
+        }
+    }
+
+    @Param({"HEAP", "DISK"})
+    public Storage storage;
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public Sizes sizes;
+
+    @Param({"10000", "1000000"})
+    public int treeSize;
+
+    @Param({"4096", "16384", "65536"})
+    public int pageSize;
+
+    private Path file;
+    private PageDumper dumper;
+    private BTree tree;
+    private Key[] stored;
+    private Key[] missing;
+    private Value[] values;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var random = new Random(Sizes.SEED);
+        var entries = sizes.sortedEntries(treeSize, random);
+
+        file = Files.createTempFile("serfer-bench", ".db");
+        Files.delete(file);
+        dumper = storage.open(file, pageSize);
+        tree = new BTree(dumper);
+        tree.bulkLoad(entries.iterator(), BTree.DEFAULT_FILL_FACTOR);
+
+        stored = new Key[LOOKUP_COUNT];
+        missing = new Key[LOOKUP_COUNT];
+        values = new Value[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            stored[i] = entries.get(random.nextInt(entries.size())).getKey();
+            Key key;
+            do {
+                key = sizes.key(random);
+            } while (tree.search(key) != null);
+            missing[i] = key;
+            values[i] = sizes.value(random);
+        }
+    }
+
+    /**
+     * Freed pages of the in-place file go back to its free list only at a checkpoint.
+     */
+    @TearDown(Level.Iteration)
+    public void checkpoint() throws IOException {
+        dumper.checkpoint();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dumper.free();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Value search() {
+        return tree.search(stored[next()]);
+    }
+
+    @Benchmark
+    public Value searchMissing() {
+        return tree.search(missing[next()]);
+    }
+
+    @Benchmark
+    public void update() {
+        int i = next();
+        tree.insert(stored[i], values[i]);
+    }
+
+    @Benchmark
+    public boolean insertDelete() {
+        int i = next();
+        tree.insert(missing[i], values[i]);
+        return tree.delete(missing[i]);
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (LOOKUP_COUNT - 1);
+        return cursor;
+    }
+}
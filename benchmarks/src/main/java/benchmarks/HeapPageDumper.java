@@ -0,0 +1,98 @@
+package benchmarks;
+
+import core.page.PageDumper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+Pages kept on the heap, so the tree can be measured without any file io.
+Freed pages are reused like the file dumpers do.
+ */
+public class HeapPageDumper implements PageDumper {
+    private final List<ByteBuffer> pages = new ArrayList<>();
+    private final Deque<Integer> free = new ArrayDeque<>();
+    private final int pageSize;
+    private volatile int root = UNDEFINED_REF;
+
+    public HeapPageDumper() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    public HeapPageDumper(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public synchronized ByteBuffer get(int idx) {
+        return pages.get(idx).duplicate().rewind();
+    }
+
+    @Override
+    public synchronized int set(ByteBuffer bytes) {
+        if (bytes.limit() > pageSize) throw new IllegalArgumentException("page overflow");
+
+        var page = ByteBuffer.allocate(pageSize).put(bytes.duplicate().rewind()).rewind();
+        if (!free.isEmpty()) {
+            int ref = free.pop();
+            pages.set(ref, page);
+            return ref;
+        }
+        pages.add(page);
+        return pages.size() - 1;
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public synchronized void delete(int idx) {
+        pages.set(idx, null);
+        free.push(idx);
+    }
+
+    @Override
+    public synchronized void update(int idx, int offset, ByteBuffer bytes) {
+        pages.get(idx).put(offset, bytes.duplicate().rewind(), 0, bytes.limit());
+    }
+
+    @Override
+    public void setRoot(int idx) {
+        root = idx;
+    }
+
+    @Override
+    public int getRoot() {
+        return root;
+    }
+
+    @Override
+    public void checkpoint() {}
+
+    @Override
+    public boolean needsRecovery() {
+        return false;
+    }
+
+    @Override
+    public void recover(BitSet usedPages) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public synchronized void free() {
+        pages.clear();
+        free.clear();
+        root = UNDEFINED_REF;
+    }
+}
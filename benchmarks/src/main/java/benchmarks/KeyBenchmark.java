@@ -0,0 +1,63 @@
+package benchmarks;
+
+import core.search.Key;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Key comparison of keys that differ right after a shared prefix, as neighbour keys in a node usually do.
+The prefix is given in percent of the key, at 100 only the last byte differs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyBenchmark {
+    @Param({"16", "64", "256"})
+    public int keySize;
+
+    @Param({"0", "50", "100"})
+    public int sharedPercent;
+
+    private Key left;
+    private Key right;
+    private Key same;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(Sizes.SEED);
+        var bytes = new byte[keySize];
+        random.nextBytes(bytes);
+        var other = Arrays.copyOf(bytes, keySize);
+        int shared = (keySize - 1) * sharedPercent / 100;
+        other[shared] = (byte) (bytes[shared] + 1);
+        left = new Key(bytes);
+        right = new Key(other);
+        same = new Key(bytes);
+    }
+
+    @Benchmark
+    public int compare() {
+        return left.compareTo(right);
+    }
+
+    @Benchmark
+    public int compareEqual() {
+        return left.compareTo(same);
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import core.compress.Lz4;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Value compression cost: a sensor payload that compresses well and random bytes of the same length that do not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Lz4Benchmark {
+    @Param({"JSON", "RANDOM"})
+    public String content;
+
+    @Param({"256", "2048"})
+    public int size;
+
+    private byte[] raw;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        raw = new byte[size];
+        if (content.equals("JSON")) {
+            var json = "{\"sensor\":\"temperature\",\"room\":\"kitchen\",\"value\":21.5,\"unit\":\"C\"},"
+                    .repeat(size / 60 + 1).getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(json, 0, raw, 0, size);
+        } else {
+            new Random(42).nextBytes(raw);
+        }
+        compressed = Lz4.compress(raw);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return Lz4.compress(raw);
+    }
+
+    @Benchmark
+    public byte[] decompress() {
+        return Lz4.decompress(compressed);
+    }
+}
@@ -0,0 +1,112 @@
+package benchmarks;
+
+import core.page.PagingConstants;
+import core.search.Key;
+import core.search.Value;
+import core.search.btree.BTree;
+import core.search.btree.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+Page encoding and decoding of a leaf and an inner node filled to the default fill factor,
+and lookups in them: the probes are the keys of the leaf, cycled through in random order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+    private static final int TARGET_SIZE = (int) (PagingConstants.DEFAULT_PAGE_SIZE * BTree.DEFAULT_FILL_FACTOR);
+
+    @Param({"SMALL", "MIXED", "LARGE"})
+    public Sizes sizes;
+
+    private Node leaf;
+    private Node inner;
+    private ByteBuffer leafPage;
+    private ByteBuffer innerPage;
+    private Key[] probes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(Sizes.SEED);
+        leaf = new Node(true);
+        inner = new Node(false);
+        int child = 0;
+        inner.nodeInsert(Key.NullKey(), child++); // routes the probes below its other keys
+        while (true) {
+            Key key = sizes.key(random);
+            var value = sizes.value(random);
+            var grownLeaf = leaf.copy();
+            grownLeaf.leafUpdate(key, value);
+            if (grownLeaf.nodeSize() > TARGET_SIZE)
+                break;
+            leaf = grownLeaf;
+        }
+        while (inner.nodeSize() + 2 + Key.MAX_KEY_SIZE + 4 <= TARGET_SIZE) {
+            inner.nodeInsert(sizes.key(random), child++);
+        }
+        leafPage = Node.encode(leaf);
+        innerPage = Node.encode(inner);
+        probes = new Key[leaf.size()];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = leaf.getKey(i);
+        }
+        Collections.shuffle(Arrays.asList(probes), random);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeLeaf() {
+        return Node.encode(leaf);
+    }
+
+    @Benchmark
+    public Node decodeLeaf() {
+        return Node.decode(leafPage.duplicate());
+    }
+
+    @Benchmark
+    public Value searchLeaf() {
+        return leaf.getKeyValue(nextProbe());
+    }
+
+    @Benchmark
+    public int searchInner() {
+        return inner.getChildRef(nextProbe());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInner() {
+        return Node.encode(inner);
+    }
+
+    @Benchmark
+    public Node decodeInner() {
+        return Node.decode(innerPage.duplicate());
+    }
+
+    private Key nextProbe() {
+        if (next == probes.length)
+            next = 0;
+        return probes[next++];
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import api.SEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Value conversion on the api boundary, an int and strings of several lengths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SEntityBenchmark {
+    @Param({"INT", "STRING_16", "STRING_256"})
+    public String content;
+
+    private SEntity entity;
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() {
+        entity = switch (content) {
+            case "INT" -> SEntity.of(123456789);
+            case "STRING_16" -> SEntity.of("s".repeat(16));
+            case "STRING_256" -> SEntity.of("s".repeat(256));
+            default -> throw new IllegalArgumentException(content);
+        };
+        serialized = SEntity.serialize(entity);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return SEntity.serialize(entity);
+    }
+
+    @Benchmark
+    public SEntity deserialize() {
+        return SEntity.deserialize(serialized);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import core.search.Key;
+import core.search.Value;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/*
+Key and value size distributions used by the benchmarks, sizes are picked uniformly in the bounds.
+Data is generated from a fixed seed, so every run of a benchmark works on the same entries.
+ */
+public enum Sizes {
+    SMALL(8, 16, 8, 32),
+    MIXED(8, 64, 16, 256),
+    LARGE(64, 200, 256, 500);
+
+    public static final long SEED = 42;
+
+    private final int minKey;
+    private final int maxKey;
+    private final int minValue;
+    private final int maxValue;
+
+    Sizes(int minKey, int maxKey, int minValue, int maxValue) {
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    public Key key(Random random) {
+        return new Key(bytes(random, minKey, maxKey));
+    }
+
+    public Value value(Random random) {
+        return new Value(bytes(random, minValue, maxValue));
+    }
+
+    /**
+     * Distinct entries in ascending key order.
+     */
+    public List<Map.Entry<Key, Value>> sortedEntries(int count, Random random) {
+        var entries = new TreeMap<Key, Value>();
+        while (entries.size() < count) {
+            entries.put(key(random), value(random));
+        }
+        List<Map.Entry<Key, Value>> result = new ArrayList<>(count);
+        for (var entry : entries.entrySet()) {
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    private static byte[] bytes(Random random, int min, int max) {
+        var bytes = new byte[min + random.nextInt(max - min + 1)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks.workload;
+
+import java.util.Random;
+
+/*
+Which record an operation touches, as an index below the number of records inserted so far.
+ZIPFIAN makes a few records hot and scatters them over the key space, LATEST makes the newest records hot.
+ */
+public enum KeyDistribution {
+    UNIFORM,
+    ZIPFIAN,
+    LATEST;
+
+    public Chooser chooser(long recordCount) {
+        return switch (this) {
+            case UNIFORM -> (random, count) -> random.nextLong(count);
+            case ZIPFIAN -> {
+                var zipfian = new Zipfian(recordCount);
+                yield (random, count) -> Long.remainderUnsigned(fnv(zipfian.next(random)), count);
+            }
+            case LATEST -> {
+                var zipfian = new Zipfian(recordCount);
+                yield (random, count) -> Math.max(0, count - 1 - zipfian.next(random));
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface Chooser {
+        long next(Random random, long count);
+    }
+
+    /*
+    Zipfian ranks over a fixed number of items, rank 0 is the most frequent one.
+    Gray et al., "Quickly generating billion-record synthetic databases", with the YCSB constant.
+     */
+    static final class Zipfian {
+        static final double THETA = 0.99;
+
+        private final long items;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+
+        Zipfian(long items) {
+            if (items < 1) throw new IllegalArgumentException("zipfian needs at least one item");
+            this.items = items;
+            this.zetan = zeta(items);
+            this.alpha = 1 / (1 - THETA);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - THETA)) / (1 - zeta(2) / zetan);
+        }
+
+        long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1)
+                return 0;
+            if (uz < 1 + Math.pow(0.5, THETA))
+                return Math.min(1, items - 1);
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(long n) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+    }
+
+    /*
+    FNV-1a over the bytes of the value, spreads neighbour ranks over the key space.
+     */
+    static long fnv(long value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= value & 0xff;
+            hash *= 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
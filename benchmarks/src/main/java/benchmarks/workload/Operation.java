@@ -0,0 +1,8 @@
+package benchmarks.workload;
+
+public enum Operation {
+    READ,
+    UPDATE,
+    INSERT,
+    SCAN
+}
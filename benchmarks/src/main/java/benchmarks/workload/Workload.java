@@ -0,0 +1,129 @@
+package benchmarks.workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+Operation mix of a run, after the YCSB core workloads:
+A update heavy, B read mostly, C read only, D read latest, E short ranges.
+Proportions are relative weights, they do not have to add up to 1.
+ */
+public record Workload(String name,
+                       long recordCount,
+                       long operationCount,
+                       Map<Operation, Double> proportions,
+                       KeyDistribution distribution,
+                       int maxScanLength,
+                       int valueSize,
+                       int threads) {
+    public static final long DEFAULT_RECORD_COUNT = 100_000;
+    public static final long DEFAULT_OPERATION_COUNT = 1_000_000;
+    public static final int DEFAULT_MAX_SCAN_LENGTH = 100;
+    public static final int DEFAULT_VALUE_SIZE = 100;
+
+    public Workload {
+        if (recordCount < 1) throw new IllegalArgumentException("record count must be positive");
+        if (operationCount < 0) throw new IllegalArgumentException("operation count cannot be negative");
+        if (threads < 1) throw new IllegalArgumentException("thread count must be positive");
+        if (maxScanLength < 1) throw new IllegalArgumentException("scan length must be positive");
+        if (proportions.values().stream().anyMatch(p -> p < 0)) throw new IllegalArgumentException("proportions cannot be negative");
+        if (proportions.values().stream().mapToDouble(Double::doubleValue).sum() <= 0)
+            throw new IllegalArgumentException("workload has no operations");
+        proportions = Map.copyOf(proportions);
+    }
+
+    public static Builder preset(String name) {
+        var builder = new Builder(name);
+        switch (name.toUpperCase()) {
+            case "A" -> builder.proportion(Operation.READ, 0.5).proportion(Operation.UPDATE, 0.5);
+            case "B" -> builder.proportion(Operation.READ, 0.95).proportion(Operation.UPDATE, 0.05);
+            case "C" -> builder.proportion(Operation.READ, 1);
+            case "D" -> builder.proportion(Operation.READ, 0.95).proportion(Operation.INSERT, 0.05)
+                    .distribution(KeyDistribution.LATEST);
+            case "E" -> builder.proportion(Operation.SCAN, 0.95).proportion(Operation.INSERT, 0.05);
+            default -> throw new IllegalArgumentException("unknown workload " + name + ", expected one of A-E");
+        }
+        return builder;
+    }
+
+    /**
+     * Next operation to run, picked by the proportions.
+     */
+    public Operation pick(Random random) {
+        double total = proportions.values().stream().mapToDouble(Double::doubleValue).sum();
+        double point = random.nextDouble() * total;
+        for (var operation : Operation.values()) {
+            point -= proportions.getOrDefault(operation, 0.0);
+            if (point < 0)
+                return operation;
+        }
+        return Operation.READ; // rounding left the point at the very end
+    }
+
+    @Override
+    public String toString() {
+        var mix = new StringBuilder();
+        for (var operation : Operation.values()) {
+            double proportion = proportions.getOrDefault(operation, 0.0);
+            if (proportion > 0)
+                mix.append(String.format("%s %.2f, ", operation.name().toLowerCase(), proportion));
+        }
+        return String.format("workload %s: %s%s keys, %d threads, %d records, %d operations, %d byte values",
+                name, mix, distribution.name().toLowerCase(), threads, recordCount, operationCount, valueSize);
+    }
+
+    public static class Builder {
+        private final String name;
+        private final Map<Operation, Double> proportions = new EnumMap<>(Operation.class);
+        private long recordCount = DEFAULT_RECORD_COUNT;
+        private long operationCount = DEFAULT_OPERATION_COUNT;
+        private KeyDistribution distribution = KeyDistribution.ZIPFIAN;
+        private int maxScanLength = DEFAULT_MAX_SCAN_LENGTH;
+        private int valueSize = DEFAULT_VALUE_SIZE;
+        private int threads = 1;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder proportion(Operation operation, double proportion) {
+            proportions.put(operation, proportion);
+            return this;
+        }
+
+        public Builder recordCount(long recordCount) {
+            this.recordCount = recordCount;
+            return this;
+        }
+
+        public Builder operationCount(long operationCount) {
+            this.operationCount = operationCount;
+            return this;
+        }
+
+        public Builder distribution(KeyDistribution distribution) {
+            this.distribution = distribution;
+            return this;
+        }
+
+        public Builder maxScanLength(int maxScanLength) {
+            this.maxScanLength = maxScanLength;
+            return this;
+        }
+
+        public Builder valueSize(int valueSize) {
+            this.valueSize = valueSize;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Workload build() {
+            return new Workload(name, recordCount, operationCount, proportions, distribution, maxScanLength, valueSize, threads);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package benchmarks.workload;
+
+import api.SEntity;
+import api.Serfer;
+import api.SerferConfig;
+import api.SerferStorage;
+import core.memory.StorageEngine;
+import core.memory.StorageMode;
+import core.memory.cache.EvictionPolicy;
+import core.metrics.Histogram;
+import core.search.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Runs a workload through the Serfer api on a real file and reports throughput, latency percentiles
+and the io and tree counters of the storage.
+The storage is created and bulk loaded first, then closed and opened again, so the open cost of the
+storage mode (SHADOW_COPY copies the whole file) is measured on a loaded file. Closing at the end is timed too.
+
+Usage: java -cp benchmarks.jar benchmarks.workload.WorkloadDriver [--name=value ...]
+  --workload=A..E       preset to start from, A by default
+  --records=N           records loaded before the run
+  --operations=N        operations of the run, split between the threads
+  --threads=N
+  --distribution=UNIFORM|ZIPFIAN|LATEST
+  --read=P --update=P --insert=P --scan=P   proportions, override the preset
+  --scan-length=N       longest scan, the length of each one is uniform in 1..N
+  --value-size=N        value bytes
+  --file=PATH           storage file, serfer-workload.db by default
+  --mode=SHADOW_COPY|IN_PLACE  --engine=FILE_CHANNEL|MEMORY_MAPPED  --page-cache-mb=N  --wal
+  --page-kb=4|8|16|32|64  page size of a newly created file
+  --keep                run on the records already in the file instead of loading them again
+ */
+public class WorkloadDriver {
+    private static final String KEY_PREFIX = "user";
+
+    private final Workload workload;
+    private final String file;
+    private final SerferConfig config;
+    private final AtomicLong nextInsert;
+    private final AtomicLong inserted;
+    private final AtomicLong missing = new AtomicLong();
+
+    public WorkloadDriver(Workload workload, String file, SerferConfig config) {
+        if (workload.valueSize() + 1 > Value.MAX_LARGE_VALUE_SIZE) // entity type tag takes a byte
+            throw new IllegalArgumentException("value size cannot exceed " + (Value.MAX_LARGE_VALUE_SIZE - 1));
+        this.workload = workload;
+        this.file = file;
+        this.config = config;
+        this.nextInsert = new AtomicLong(workload.recordCount());
+        this.inserted = new AtomicLong(workload.recordCount());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        var builder = Workload.preset(options.getOrDefault("workload", "A"));
+        var configBuilder = SerferConfig.builder();
+        boolean keep = false;
+        String file = "serfer-workload.db";
+        for (var option : options.entrySet()) {
+            String value = option.getValue();
+            switch (option.getKey()) {
+                case "workload" -> {}
+                case "records" -> builder.recordCount(Long.parseLong(value));
+                case "operations" -> builder.operationCount(Long.parseLong(value));
+                case "threads" -> builder.threads(Integer.parseInt(value));
+                case "distribution" -> builder.distribution(KeyDistribution.valueOf(value.toUpperCase()));
+                case "read" -> builder.proportion(Operation.READ, Double.parseDouble(value));
+                case "update" -> builder.proportion(Operation.UPDATE, Double.parseDouble(value));
+                case "insert" -> builder.proportion(Operation.INSERT, Double.parseDouble(value));
+                case "scan" -> builder.proportion(Operation.SCAN, Double.parseDouble(value));
+                case "scan-length" -> builder.maxScanLength(Integer.parseInt(value));
+                case "value-size" -> builder.valueSize(Integer.parseInt(value));
+                case "file" -> file = value;
+                case "mode" -> configBuilder.storageMode(StorageMode.valueOf(value.toUpperCase()));
+                case "engine" -> configBuilder.storageEngine(StorageEngine.valueOf(value.toUpperCase()));
+                case "page-cache-mb" -> configBuilder.pageCache(Long.parseLong(value) * 1024 * 1024, EvictionPolicy.LRU);
+                case "page-kb" -> configBuilder.pageSize(Integer.parseInt(value) * 1024);
+                case "wal" -> configBuilder.writeAheadLog();
+                case "keep" -> keep = true;
+                default -> throw new IllegalArgumentException("unknown option --" + option.getKey());
+            }
+        }
+
+        var driver = new WorkloadDriver(builder.build(), file, configBuilder.build());
+        if (!keep || !Files.exists(Path.of(file)))
+            driver.load();
+        driver.run();
+    }
+
+    /**
+     * Creates the storage anew and bulk loads the records.
+     */
+    public void load() throws Exception {
+        if (Files.exists(Path.of(file)))
+            SerferStorage.freeStorage(file);
+
+        long start = System.nanoTime();
+        Serfer db = SerferStorage.openOrCreate(file, config);
+        report("create", start);
+
+        List<String> keys = new ArrayList<>();
+        for (long i = 0; i < workload.recordCount(); i++) {
+            keys.add(key(i));
+        }
+        Collections.sort(keys); // ascii keys, string order is byte order
+        var random = new Random(0);
+        start = System.nanoTime();
+        db.load(keys.stream()
+                .distinct()
+                .map(key -> (Map.Entry<String, SEntity>) new AbstractMap.SimpleImmutableEntry<>(key, value(random)))
+                .iterator());
+        double seconds = report("load", start);
+        System.out.printf("      %d records, %.0f records/s%n", keys.size(), keys.size() / seconds);
+
+        start = System.nanoTime();
+        db.flush();
+        report("close", start);
+    }
+
+    public void run() throws Exception {
+        System.out.println(workload);
+        long start = System.nanoTime();
+        Serfer db = SerferStorage.openOrCreate(file, config);
+        report("open", start);
+
+        var chooser = workload.distribution().chooser(workload.recordCount());
+        Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        for (var operation : Operation.values()) {
+            latencies.put(operation, new Histogram());
+        }
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < workload.threads(); t++) {
+            long operations = workload.operationCount() / workload.threads()
+                    + (t < workload.operationCount() % workload.threads() ? 1 : 0);
+            var random = new Random(t + 1);
+            var thread = new Thread(() -> work(db, chooser, random, operations, latencies), "workload-" + t);
+            thread.setUncaughtExceptionHandler((failed, e) -> errors.add(e));
+            threads.add(thread);
+        }
+
+        start = System.nanoTime();
+        threads.forEach(Thread::start);
+        for (var thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (!errors.isEmpty())
+            throw new IllegalStateException("workload thread failed", errors.getFirst());
+
+        printRun(latencies, elapsed);
+        db.metrics().snapshot().values().forEach((name, value) -> System.out.printf("      %-24s %d%n", name, value));
+
+        start = System.nanoTime();
+        db.flush();
+        report("close", start);
+        System.out.printf("file: %.1f MB%n", Files.size(Path.of(file)) / (1024.0 * 1024));
+    }
+
+    private void work(Serfer db, KeyDistribution.Chooser chooser, Random random, long operations,
+                      Map<Operation, Histogram> latencies) {
+        for (long i = 0; i < operations; i++) {
+            var operation = workload.pick(random);
+            long start;
+            switch (operation) {
+                case READ -> {
+                    String key = key(chooser.next(random, inserted.get()));
+                    start = System.nanoTime();
+                    if (db.tryGet(key).isEmpty())
+                        missing.incrementAndGet();
+                }
+                case UPDATE -> {
+                    String key = key(chooser.next(random, inserted.get()));
+                    SEntity value = value(random);
+                    start = System.nanoTime();
+                    db.insert(key, value);
+                }
+                case INSERT -> {
+                    String key = key(nextInsert.getAndIncrement());
+                    SEntity value = value(random);
+                    start = System.nanoTime();
+                    db.insert(key, value);
+                    inserted.incrementAndGet();
+                }
+                case SCAN -> {
+                    String key = key(chooser.next(random, inserted.get()));
+                    int length = 1 + random.nextInt(workload.maxScanLength());
+                    start = System.nanoTime();
+                    try (var entries = db.scan(key, null)) {
+                        entries.limit(length).forEach(entry -> {});
+                    }
+                }
+                default -> throw new IllegalStateException();
+            }
+            latencies.get(operation).recordSince(start);
+        }
+    }
+
+    private void printRun(Map<Operation, Histogram> latencies, long elapsed) {
+        long operations = latencies.values().stream().mapToLong(Histogram::count).sum();
+        double seconds = elapsed / 1e9;
+        System.out.printf("run: %d operations in %.2f s, %.0f ops/s%n", operations, seconds, operations / seconds);
+        System.out.printf("      %-7s %10s %12s %10s %10s %10s %10s%n", "op", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+        latencies.forEach((operation, histogram) -> {
+            var latency = histogram.snapshot();
+            if (latency.count() > 0)
+                System.out.printf("      %-7s %10d %12.0f %10.1f %10.1f %10.1f %10.1f%n",
+                        operation, latency.count(), latency.count() / seconds,
+                        latency.p50() / 1e3, latency.p99() / 1e3, latency.p999() / 1e3, latency.max() / 1e3);
+        });
+        if (missing.get() > 0)
+            System.out.printf("      %d reads missed a record inserted concurrently%n", missing.get());
+    }
+
+    private static double report(String phase, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %.1f ms%n", phase, seconds * 1e3);
+        return seconds;
+    }
+
+    /*
+    Record numbers are hashed, so inserts land all over the key space instead of appending.
+     */
+    static String key(long record) {
+        return KEY_PREFIX + Long.toUnsignedString(KeyDistribution.fnv(record));
+    }
+
+    private SEntity value(Random random) {
+        var chars = new char[workload.valueSize()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return SEntity.of(new String(chars));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("expected --name=value, got " + arg);
+            int split = arg.indexOf('=');
+            if (split < 0)
+                options.put(arg.substring(2), "");
+            else
+                options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+}
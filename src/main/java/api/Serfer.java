@@ -1,14 +1,66 @@
 package api;
 
+import core.metrics.MetricsRegistry;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+/*
+A storage can be shared between threads. Reads never block and see the last completed change,
+writes are serialized and do not wait for readers.
+ */
 public interface Serfer {
     public void insert(String key, SEntity value);
+    public void insertAll(Map<String, SEntity> entries);
+    public void write(WriteBatch batch);
+
+    /**
+     * Changes made through the transaction become visible together on commit, see Transaction.
+     */
+    public Transaction beginTransaction();
+
+    /**
+     * Fills an empty storage from entries in strictly ascending key order, much faster than inserting them.
+     * Keys are compared by their UTF-8 bytes. The load is not logged, the storage is checkpointed once it is done.
+     */
+    public void load(Iterator<Map.Entry<String, SEntity>> sorted);
+    public void load(Iterator<Map.Entry<String, SEntity>> sorted, double fillFactor);
     public SEntity get(String key);
     public Optional<SEntity> tryGet(String key);
+
+    /**
+     * Content of the value as a stream: the UTF-8 bytes of a string, the four bytes of an int.
+     * A value kept in overflow pages is read a page at a time as the stream is consumed. Until the stream
+     * is closed it pins a read epoch, and no page freed meanwhile is reused, so it has to be closed,
+     * best with try-with-resources.
+     */
+    public InputStream getStream(String key);
     public boolean delete(String key);
     public boolean contains(String key);
+
+    /**
+     * Entries in key order, from inclusive and to exclusive, null leaves a side unbounded.
+     * Entries are read lazily one leaf at a time. Changes made while the stream is consumed
+     * show up only for keys it did not reach yet.
+     */
+    public Stream<Map.Entry<String, SEntity>> scan(String from, String to);
+    public Stream<Map.Entry<String, SEntity>> scanPrefix(String prefix);
+
+    /**
+     * Read-only view pinned to the current state, see SerferSnapshot.
+     */
+    public SerferSnapshot snapshot();
+
+    /**
+     * Operation latencies, page io and tree statistics of this storage, counted since it was opened.
+     */
+    public MetricsRegistry metrics();
+
+    public void checkpoint();
     public void flush();
     public void freeStorage() throws IOException;
 }
@@ -0,0 +1,282 @@
+package api;
+
+import core.compress.Compression;
+import core.memory.StorageEngine;
+import core.memory.StorageMode;
+import core.memory.WriteAheadLog;
+import core.memory.cache.EvictionPolicy;
+import core.metrics.MetricsExporter;
+import core.page.PagingConstants;
+import core.search.btree.BTree;
+
+import java.time.Duration;
+
+/*
+Options applied when a storage is opened. Everything is optional,
+SerferConfig.defaults() gives the same behaviour as the plain open methods.
+ */
+public class SerferConfig {
+    public static final int DEFAULT_CHECKPOINT_PAGES = 1024;
+    public static final long DEFAULT_CHECKPOINT_LOG_BYTES = 64L * 1024 * 1024;
+    public static final Duration DEFAULT_IN_PLACE_CHECKPOINT_INTERVAL = Duration.ofSeconds(30);
+
+    private final long pageCacheBytes;
+    private final EvictionPolicy evictionPolicy;
+    private final int nodeCacheSize;
+    private final Compression compression;
+    private final StorageEngine storageEngine;
+    private final StorageMode storageMode;
+    private final int pageSize;
+    private final boolean writeAheadLog;
+    private final Duration commitInterval;
+    private final int commitBytes;
+    private final Duration checkpointInterval;
+    private final int checkpointPages;
+    private final long checkpointLogBytes;
+    private final MetricsExporter metricsExporter;
+    private final Duration exportInterval;
+    private final String jmxName;
+
+    private SerferConfig(Builder builder, Duration checkpointInterval) {
+        this.pageCacheBytes = builder.pageCacheBytes;
+        this.evictionPolicy = builder.evictionPolicy;
+        this.nodeCacheSize = builder.nodeCacheSize;
+        this.compression = builder.compression;
+        this.storageEngine = builder.storageEngine;
+        this.storageMode = builder.storageMode;
+        this.pageSize = builder.pageSize;
+        this.writeAheadLog = builder.writeAheadLog;
+        this.commitInterval = builder.commitInterval;
+        this.commitBytes = builder.commitBytes;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointPages = builder.checkpointPages;
+        this.checkpointLogBytes = builder.checkpointLogBytes;
+        this.metricsExporter = builder.metricsExporter;
+        this.exportInterval = builder.exportInterval;
+        this.jmxName = builder.jmxName;
+    }
+
+    public static SerferConfig defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long getPageCacheBytes() {
+        return pageCacheBytes;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public int getNodeCacheSize() {
+        return nodeCacheSize;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public boolean isWriteAheadLogEnabled() {
+        return writeAheadLog;
+    }
+
+    public Duration getCommitInterval() {
+        return commitInterval;
+    }
+
+    public int getCommitBytes() {
+        return commitBytes;
+    }
+
+    public Duration getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getCheckpointPages() {
+        return checkpointPages;
+    }
+
+    public long getCheckpointLogBytes() {
+        return checkpointLogBytes;
+    }
+
+    public MetricsExporter getMetricsExporter() {
+        return metricsExporter;
+    }
+
+    public Duration getExportInterval() {
+        return exportInterval;
+    }
+
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    public static class Builder {
+        private long pageCacheBytes = 0;
+        private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+        private int nodeCacheSize = BTree.DEFAULT_NODE_CACHE_SIZE;
+        private Compression compression = Compression.NONE;
+        private StorageEngine storageEngine = StorageEngine.FILE_CHANNEL;
+        private StorageMode storageMode = StorageMode.SHADOW_COPY;
+        private int pageSize = PagingConstants.DEFAULT_PAGE_SIZE;
+        private boolean writeAheadLog = false;
+        private Duration commitInterval = WriteAheadLog.DEFAULT_COMMIT_INTERVAL;
+        private int commitBytes = WriteAheadLog.DEFAULT_COMMIT_BYTES;
+        private Duration checkpointInterval; // null: chosen by the storage mode
+        private int checkpointPages = DEFAULT_CHECKPOINT_PAGES;
+        private long checkpointLogBytes = DEFAULT_CHECKPOINT_LOG_BYTES;
+        private MetricsExporter metricsExporter;
+        private Duration exportInterval = Duration.ZERO;
+        private String jmxName;
+
+        private Builder() {}
+
+        /**
+         * Keeps up to maxBytes of recently used pages in memory, 0 disables the cache.
+         */
+        public Builder pageCache(long maxBytes, EvictionPolicy policy) {
+            if (maxBytes < 0) throw new IllegalArgumentException("cache size cannot be negative");
+            if (policy == null) throw new IllegalArgumentException("eviction policy cannot be null");
+            this.pageCacheBytes = maxBytes;
+            this.evictionPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Number of decoded inner B-tree nodes kept between lookups, 0 disables the cache.
+         */
+        public Builder nodeCache(int entries) {
+            if (entries < 0) throw new IllegalArgumentException("node cache size cannot be negative");
+            this.nodeCacheSize = entries;
+            return this;
+        }
+
+        /**
+         * How values are compressed when they are written. Values already stored are read back
+         * whatever the setting, so it can change between opens.
+         */
+        public Builder compression(Compression compression) {
+            if (compression == null) throw new IllegalArgumentException("compression cannot be null");
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * How pages reach the file: positional channel io or a memory mapping.
+         */
+        public Builder storageEngine(StorageEngine engine) {
+            if (engine == null) throw new IllegalArgumentException("storage engine cannot be null");
+            this.storageEngine = engine;
+            return this;
+        }
+
+        /**
+         * SHADOW_COPY copies the file on open and replaces it on close,
+         * IN_PLACE works on the file itself and commits through the double buffered meta page.
+         * IN_PLACE also checkpoints in the background unless checkpointInterval says otherwise.
+         */
+        public Builder storageMode(StorageMode mode) {
+            if (mode == null) throw new IllegalArgumentException("storage mode cannot be null");
+            this.storageMode = mode;
+            return this;
+        }
+
+        /**
+         * Size of the pages of a storage this open creates, a power of two from 4 KiB to 64 KiB.
+         * An existing storage keeps the page size it was created with.
+         */
+        public Builder pageSize(int bytes) {
+            this.pageSize = PagingConstants.checkPageSize(bytes);
+            return this;
+        }
+
+        public Builder writeAheadLog() {
+            return writeAheadLog(WriteAheadLog.DEFAULT_COMMIT_INTERVAL, WriteAheadLog.DEFAULT_COMMIT_BYTES);
+        }
+
+        /**
+         * Logs every change before it returns, so it survives a crash without closing the storage.
+         * Log syncs of concurrent writers are grouped: a sync happens once commitBytes are pending
+         * or commitInterval passed since the oldest unsynced change.
+         */
+        public Builder writeAheadLog(Duration commitInterval, int commitBytes) {
+            if (commitInterval == null || commitInterval.isNegative()) throw new IllegalArgumentException("commit interval cannot be negative");
+            if (commitBytes < 1) throw new IllegalArgumentException("commit size must be positive");
+            this.writeAheadLog = true;
+            this.commitInterval = commitInterval;
+            this.commitBytes = commitBytes;
+            return this;
+        }
+
+        /**
+         * Runs checkpoint() in the background every interval, Duration.ZERO disables it.
+         * By default IN_PLACE storages checkpoint every DEFAULT_IN_PLACE_CHECKPOINT_INTERVAL and SHADOW_COPY
+         * ones do not. An IN_PLACE storage with a log has to checkpoint somehow, so it cannot disable
+         * both the interval and the checkpointThresholds.
+         */
+        public Builder checkpointInterval(Duration interval) {
+            if (interval == null || interval.isNegative()) throw new IllegalArgumentException("checkpoint interval cannot be negative");
+            this.checkpointInterval = interval;
+            return this;
+        }
+
+        /**
+         * In IN_PLACE mode freed pages are reused and the log is cut only at a checkpoint, so a write runs one
+         * once freedPages wait for it or the log reached logBytes. 0 disables either, by default both are on.
+         */
+        public Builder checkpointThresholds(int freedPages, long logBytes) {
+            if (freedPages < 0 || logBytes < 0) throw new IllegalArgumentException("checkpoint thresholds cannot be negative");
+            this.checkpointPages = freedPages;
+            this.checkpointLogBytes = logBytes;
+            return this;
+        }
+
+        /**
+         * Passes the storage metrics to the exporter every interval and once more when the storage is flushed.
+         */
+        public Builder metricsExporter(MetricsExporter exporter, Duration interval) {
+            if (exporter == null) throw new IllegalArgumentException("metrics exporter cannot be null");
+            if (interval == null || interval.isNegative() || interval.isZero()) throw new IllegalArgumentException("export interval must be positive");
+            this.metricsExporter = exporter;
+            this.exportInterval = interval;
+            return this;
+        }
+
+        /**
+         * Registers the storage metrics as the MBean serferdb:type=Storage,name=&lt;name&gt; while the storage is open.
+         */
+        public Builder jmx(String name) {
+            if (name == null || name.isEmpty()) throw new IllegalArgumentException("jmx name cannot be empty");
+            this.jmxName = name;
+            return this;
+        }
+
+        public SerferConfig build() {
+            Duration interval = checkpointInterval;
+            if (interval == null) {
+                interval = storageMode == StorageMode.IN_PLACE ? DEFAULT_IN_PLACE_CHECKPOINT_INTERVAL : Duration.ZERO;
+            }
+            if (storageMode == StorageMode.IN_PLACE && writeAheadLog && interval.isZero()
+                    && checkpointPages == 0 && checkpointLogBytes == 0)
+                throw new IllegalArgumentException("in place storage with a log needs a checkpoint interval or thresholds");
+            return new SerferConfig(this, interval);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package api;
+
+import core.search.Key;
+import core.search.Snapshot;
+import core.search.Value;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+Read-only transaction: every read sees the storage as it was when Serfer.snapshot was called,
+writers go on and are not blocked by it. Pages the snapshot reads are not reused until it is closed,
+so it has to be closed, best with try-with-resources, and before the storage is flushed.
+ */
+public class SerferSnapshot implements AutoCloseable {
+    private final Snapshot snapshot;
+
+    SerferSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public SEntity get(String key) {
+        Value result = snapshot.search(Key.from(key));
+        if (result == null) throw new IllegalArgumentException("cannot find such key " + key);
+
+        return SEntity.deserialize(result.value());
+    }
+
+    public Optional<SEntity> tryGet(String key) {
+        Value result = snapshot.search(Key.from(key));
+        if (result == null)
+            return Optional.empty();
+
+        return Optional.of(SEntity.deserialize(result.value()));
+    }
+
+    /**
+     * Same content as Serfer.getStream, read under the pin of the snapshot,
+     * so the stream has to be consumed before the snapshot is closed.
+     */
+    public InputStream getStream(String key) {
+        InputStream result = snapshot.searchStream(Key.from(key));
+        if (result == null) throw new IllegalArgumentException("cannot find such key " + key);
+
+        return SerferStorage.content(result);
+    }
+
+    public boolean contains(String key) {
+        return snapshot.search(Key.from(key)) != null;
+    }
+
+    /**
+     * Same bounds as Serfer.scan, the stream has to be consumed before the snapshot is closed.
+     */
+    public Stream<Map.Entry<String, SEntity>> scan(String from, String to) {
+        return SerferStorage.entries(snapshot.scan(
+                from == null ? null : Key.from(from),
+                to == null ? null : Key.from(to)));
+    }
+
+    public Stream<Map.Entry<String, SEntity>> scanPrefix(String prefix) {
+        return SerferStorage.entries(snapshot.scanPrefix(Key.prefix(prefix)));
+    }
+
+    @Override
+    public void close() {
+        snapshot.close();
+    }
+}
@@ -3,43 +3,167 @@ package api;
 import api.exception.StorageAlreadyExistsException;
 import api.exception.StorageNotFoundException;
 import core.exception.StorageAccessException;
-import core.memory.DiskPageDumper;
+import core.memory.CachingPageDumper;
+import core.memory.StorageMode;
+import core.memory.WriteAheadLog;
+import core.metrics.Histogram;
+import core.metrics.MetricsRegistry;
 import core.page.PageDumper;
 import core.search.Key;
+import core.search.Mutation;
 import core.search.Searcher;
 import core.search.Value;
 import core.search.btree.BTree;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SerferStorage implements Serfer{
 
     private final Searcher searcher;
     private final PageDumper dumper;
-    private boolean isOpen;
+    private final WriteAheadLog wal; // null when the log is disabled
+    private final StorageMode storageMode;
+    private final int checkpointPages;
+    private final long checkpointLogBytes;
+    private final Object writeLock = new Object();
+    private final Object checkpointLock = new Object();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Histogram getLatency = metrics.histogram("storage.get");
+    private final Histogram insertLatency = metrics.histogram("storage.insert");
+    private final Histogram deleteLatency = metrics.histogram("storage.delete");
+    private final Histogram writeLatency = metrics.histogram("storage.write");
+    private final Histogram checkpointLatency = metrics.histogram("storage.checkpoint");
+    private ScheduledExecutorService checkpointer; // null when background checkpoints are disabled
+    private ScheduledExecutorService exporter;     // null when metrics are not exported
+    private volatile RuntimeException checkpointError;
+    private volatile boolean isOpen;
 
-    private SerferStorage(PageDumper dumper) {
+    private SerferStorage(PageDumper dumper, SerferConfig config, WriteAheadLog wal) throws IOException {
         this.dumper = dumper;
-        searcher = new BTree(dumper);
+        this.wal = wal;
+        this.storageMode = config.getStorageMode();
+        this.checkpointPages = config.getCheckpointPages();
+        this.checkpointLogBytes = config.getCheckpointLogBytes();
+        searcher = new BTree(dumper, config.getNodeCacheSize(), config.getCompression());
+        dumper.registerMetrics(metrics);
+        searcher.registerMetrics(metrics);
+        if (wal != null) {
+            wal.registerMetrics(metrics);
+            wal.replay(this::redo);
+        }
         isOpen = true;
+        if (!config.getCheckpointInterval().isZero()) {
+            startCheckpointer(config.getCheckpointInterval());
+        }
+        if (config.getMetricsExporter() != null) {
+            metrics.addExporter(config.getMetricsExporter());
+            startExporter(config.getExportInterval());
+        }
+        if (config.getJmxName() != null) {
+            metrics.registerMBean(config.getJmxName());
+        }
     }
 
     @Override
     public void insert(String key, SEntity value) {
         if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
         Key bkey = Key.from(key);
-        searcher.insert(bkey, new Value(SEntity.serialize(value)));
+        Value bvalue = new Value(SEntity.serialize(value));
+        long logPosition;
+        synchronized (writeLock) {
+            logPosition = log(WriteAheadLog.Operation.insert(bkey.key(), bvalue.value()));
+            searcher.insert(bkey, bvalue);
+        }
+        awaitDurable(logPosition);
+        checkpointIfDue();
+        insertLatency.recordSince(start);
+    }
+
+    @Override
+    public void insertAll(Map<String, SEntity> entries) {
+        var batch = new WriteBatch();
+        entries.forEach(batch::put);
+        write(batch);
+    }
+
+    @Override
+    public void write(WriteBatch batch) {
+        if (!isOpen) throw new IllegalStateException();
+        if (batch.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        List<Mutation> mutations = batch.mutations();
+        long logPosition;
+        synchronized (writeLock) {
+            logPosition = log(mutations.stream()
+                    .map(m -> m.isDelete()
+                            ? WriteAheadLog.Operation.delete(m.key().key())
+                            : WriteAheadLog.Operation.insert(m.key().key(), m.value().value()))
+                    .toList());
+            searcher.apply(mutations);
+        }
+        awaitDurable(logPosition);
+        checkpointIfDue();
+        writeLatency.recordSince(start);
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        if (!isOpen) throw new IllegalStateException();
+        return new Transaction(this);
+    }
+
+    @Override
+    public void load(Iterator<Map.Entry<String, SEntity>> sorted) {
+        load(sorted, BTree.DEFAULT_FILL_FACTOR);
+    }
+
+    @Override
+    public void load(Iterator<Map.Entry<String, SEntity>> sorted, double fillFactor) {
+        if (!isOpen) throw new IllegalStateException();
+        var entries = new Iterator<Map.Entry<Key, Value>>() {
+            @Override
+            public boolean hasNext() {
+                return sorted.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Key, Value> next() {
+                var entry = sorted.next();
+                return Map.entry(Key.from(entry.getKey()), new Value(SEntity.serialize(entry.getValue())));
+            }
+        };
+        synchronized (writeLock) {
+            searcher.bulkLoad(entries, fillFactor);
+        }
+        checkpoint(); // nothing of the load is in the log
     }
 
     @Override
     public SEntity get(String key) {
         if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
         Key bkey = Key.from(key);
         Value result = searcher.search(bkey);
+        getLatency.recordSince(start);
         if (result == null) throw new IllegalArgumentException("cannot find such key " + key);
 
         return SEntity.deserialize(result.value());
@@ -48,35 +172,155 @@ public class SerferStorage implements Serfer{
     @Override
     public Optional<SEntity> tryGet(String key) {
         if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
         Key bkey = Key.from(key);
         Value result = searcher.search(bkey);
+        getLatency.recordSince(start);
         if (result == null)
             return Optional.empty();
 
         return Optional.of(SEntity.deserialize(result.value()));
     }
 
+    @Override
+    public InputStream getStream(String key) {
+        if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
+        InputStream result = searcher.searchStream(Key.from(key));
+        getLatency.recordSince(start);
+        if (result == null) throw new IllegalArgumentException("cannot find such key " + key);
+
+        return content(result);
+    }
+
     @Override
     public boolean delete(String key) {
         if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
         Key bkey = Key.from(key);
-        return searcher.delete(bkey);
+        boolean deleted;
+        long logPosition;
+        synchronized (writeLock) {
+            logPosition = log(WriteAheadLog.Operation.delete(bkey.key()));
+            deleted = searcher.delete(bkey);
+        }
+        awaitDurable(logPosition);
+        checkpointIfDue();
+        deleteLatency.recordSince(start);
+        return deleted;
     }
 
     @Override
     public boolean contains(String key) {
         if (!isOpen) throw new IllegalStateException();
+        long start = System.nanoTime();
         Key bkey = Key.from(key);
         Value result = searcher.search(bkey);
+        getLatency.recordSince(start);
 
         return result != null;
     }
 
+    @Override
+    public Stream<Map.Entry<String, SEntity>> scan(String from, String to) {
+        if (!isOpen) throw new IllegalStateException();
+        return entries(searcher.scan(
+                from == null ? null : Key.from(from),
+                to == null ? null : Key.from(to)));
+    }
+
+    @Override
+    public Stream<Map.Entry<String, SEntity>> scanPrefix(String prefix) {
+        if (!isOpen) throw new IllegalStateException();
+        return entries(searcher.scanPrefix(Key.prefix(prefix)));
+    }
+
+    static Stream<Map.Entry<String, SEntity>> entries(Iterator<Map.Entry<Key, Value>> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .map(entry -> Map.entry(entry.getKey().asString(), SEntity.deserialize(entry.getValue().value())));
+    }
+
+    /*
+    Skips the type byte SEntity.serialize writes before the content, the stream is closed if that fails.
+     */
+    static InputStream content(InputStream serialized) {
+        try {
+            try {
+                serialized.skipNBytes(1);
+            } catch (IOException | RuntimeException e) {
+                serialized.close();
+                throw e;
+            }
+            return serialized;
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    @Override
+    public SerferSnapshot snapshot() {
+        if (!isOpen) throw new IllegalStateException();
+        return new SerferSnapshot(searcher.snapshot());
+    }
+
+    /**
+     * In IN_PLACE mode writers go on while the pages are synced, only the log rotation holds them back.
+     * SHADOW_COPY has to copy the working file, writers wait for the copy.
+     */
+    @Override
+    public void checkpoint() {
+        if (!isOpen) throw new IllegalStateException();
+        rethrowCheckpointError();
+        long start = System.nanoTime();
+        try {
+            synchronized (checkpointLock) {
+                if (storageMode == StorageMode.SHADOW_COPY) {
+                    synchronized (writeLock) {
+                        dumper.checkpoint();
+                        if (wal != null)
+                            wal.truncate();
+                    }
+                    return;
+                }
+
+                if (wal != null) {
+                    synchronized (writeLock) {
+                        wal.seal(); // changes logged from now on are not covered by this checkpoint
+                    }
+                }
+                dumper.checkpoint();
+                if (wal != null)
+                    wal.dropSealed();
+            }
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        } finally {
+            checkpointLatency.recordSince(start);
+        }
+    }
+
     @Override
     public void flush() {
         if (!isOpen) throw new IllegalStateException();
+        stopCheckpointer();
+        rethrowCheckpointError();
+        exporter = stop(exporter);
         try {
+            synchronized (writeLock) {
+                searcher.reclaim(); // pages kept for readers of the last changes
+            }
+            metrics.export(); // last values, gauges still read the open storage
+            metrics.unregisterMBean();
             dumper.close();
+            if (wal != null) {
+                wal.truncate(); // everything logged is in the closed page file now
+                wal.close();
+            }
             isOpen = false;
         } catch (IOException e) {
             throw new StorageAccessException(e.getMessage(), e.getCause());
@@ -85,36 +329,146 @@ public class SerferStorage implements Serfer{
 
     @Override
     public void freeStorage() throws IOException {
+        stopCheckpointer();
+        exporter = stop(exporter);
+        metrics.unregisterMBean();
         dumper.free();
+        if (wal != null) {
+            wal.free();
+        }
+    }
+
+    /*
+    In IN_PLACE mode freed pages go back to the free list and the log is cut only at a checkpoint,
+    so the writer that finds either past its threshold takes one.
+     */
+    private void checkpointIfDue() {
+        if (storageMode != StorageMode.IN_PLACE)
+            return;
+        boolean due = checkpointPages > 0 && dumper.pagesAwaitingCheckpoint() >= checkpointPages
+                || wal != null && checkpointLogBytes > 0 && wal.size() >= checkpointLogBytes;
+        if (due)
+            checkpoint();
+    }
+
+    private void startCheckpointer(Duration interval) {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "serfer-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        checkpointer.scheduleWithFixedDelay(this::backgroundCheckpoint, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private void backgroundCheckpoint() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            checkpointError = e; // surfaces on the next checkpoint or flush
+            throw e; // cancels further runs
+        }
+    }
+
+    private void stopCheckpointer() {
+        checkpointer = stop(checkpointer);
+    }
+
+    /*
+    An exporter that throws ends the periodic export, the registry stays readable through metrics().
+     */
+    private void startExporter(Duration interval) {
+        exporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "serfer-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        exporter.scheduleWithFixedDelay(metrics::export, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits for a running task of the executor, returns null to clear the field holding it.
+     */
+    private static ScheduledExecutorService stop(ScheduledExecutorService executor) {
+        if (executor == null)
+            return null;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void rethrowCheckpointError() {
+        RuntimeException error = checkpointError;
+        if (error != null) {
+            checkpointError = null;
+            throw new StorageAccessException("background checkpoint failed", error);
+        }
+    }
+
+    private long log(WriteAheadLog.Operation operation) {
+        return log(List.of(operation));
+    }
+
+    private long log(List<WriteAheadLog.Operation> operations) {
+        if (wal == null)
+            return 0;
+        return wal.append(operations);
+    }
+
+    private void awaitDurable(long logPosition) {
+        if (wal != null)
+            wal.sync(logPosition);
+    }
+
+    private void redo(WriteAheadLog.Operation operation) {
+        switch (operation.type()) {
+            case INSERT -> searcher.insert(new Key(operation.key()), new Value(operation.value()));
+            case DELETE -> searcher.delete(new Key(operation.key()));
+        }
     }
 
 
     public static Serfer open(String filename) throws StorageNotFoundException, IOException {
+        return open(filename, SerferConfig.defaults());
+    }
+
+    public static Serfer open(String filename, SerferConfig config) throws StorageNotFoundException, IOException {
         Path filePath = Paths.get(filename);
         if (!Files.exists(filePath)) throw new StorageNotFoundException("");
 
-        var dumper = new DiskPageDumper(filePath);
-        return new SerferStorage(dumper);
+        return openStorage(filePath, config);
     }
 
     public static Serfer openOrCreate(String filename) throws IOException {
+        return openOrCreate(filename, SerferConfig.defaults());
+    }
+
+    public static Serfer openOrCreate(String filename, SerferConfig config) throws IOException {
         Path filePath = Paths.get(filename);
         if (!Files.exists(filePath)) {
             Files.createFile(filePath);
         }
 
-        var dumper = new DiskPageDumper(filePath);
-        return new SerferStorage(dumper);
+        return openStorage(filePath, config);
     }
 
     public static Serfer create(String filename) throws StorageAlreadyExistsException, IOException {
+        return create(filename, SerferConfig.defaults());
+    }
+
+    public static Serfer create(String filename, SerferConfig config) throws StorageAlreadyExistsException, IOException {
         Path filePath = Paths.get(filename);
         if (Files.exists(filePath)) throw new StorageAlreadyExistsException();
 
         Files.createFile(filePath);
+        Files.deleteIfExists(walPath(filePath)); // left by a removed storage with the same name
 
-        var dumper = new DiskPageDumper(filePath);
-        return new SerferStorage(dumper);
+        return openStorage(filePath, config);
     }
 
     public static void freeStorage(String filename) throws StorageNotFoundException, IOException {
@@ -122,5 +476,26 @@ public class SerferStorage implements Serfer{
         if (!Files.exists(filePath)) throw new StorageNotFoundException();
 
         Files.delete(filePath);
+        Files.deleteIfExists(walPath(filePath));
+    }
+
+    private static Serfer openStorage(Path filePath, SerferConfig config) throws IOException {
+        WriteAheadLog wal = null;
+        if (config.isWriteAheadLogEnabled()) {
+            wal = new WriteAheadLog(walPath(filePath), config.getCommitInterval(), config.getCommitBytes());
+        }
+        return new SerferStorage(openDumper(filePath, config), config, wal);
+    }
+
+    private static Path walPath(Path filePath) {
+        return filePath.resolveSibling(filePath.getFileName() + ".wal");
+    }
+
+    private static PageDumper openDumper(Path filePath, SerferConfig config) throws IOException {
+        PageDumper dumper = config.getStorageEngine().open(filePath, config.getStorageMode(), config.getPageSize());
+        if (config.getPageCacheBytes() > 0) {
+            dumper = new CachingPageDumper(dumper, config.getPageCacheBytes(), config.getEvictionPolicy());
+        }
+        return dumper;
     }
 }
@@ -0,0 +1,89 @@
+package api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/*
+Changes kept in memory until commit, which hands all of them to Serfer.write at once:
+one log record and sync, one pass over the tree and one root publish, so either all of them
+become visible or none. Nothing reaches the storage before commit and rollback only drops the changes.
+Reads see the transaction's own changes over the current storage state.
+Commits are not checked for conflicts, the last commit of a key wins.
+ */
+public class Transaction implements AutoCloseable {
+    private enum State {
+        ACTIVE,
+        COMMITTED,
+        ROLLED_BACK
+    }
+
+    private final Serfer storage;
+    private final Map<String, Optional<SEntity>> changes = new LinkedHashMap<>(); // empty value deletes the key
+    private State state = State.ACTIVE;
+
+    Transaction(Serfer storage) {
+        this.storage = storage;
+    }
+
+    public Transaction put(String key, SEntity value) {
+        checkActive();
+        changes.put(key, Optional.of(value));
+        return this;
+    }
+
+    public Transaction delete(String key) {
+        checkActive();
+        changes.put(key, Optional.empty());
+        return this;
+    }
+
+    public Optional<SEntity> tryGet(String key) {
+        checkActive();
+        var change = changes.get(key);
+        if (change != null)
+            return change;
+        return storage.tryGet(key);
+    }
+
+    public SEntity get(String key) {
+        return tryGet(key).orElseThrow(() -> new IllegalArgumentException("cannot find such key " + key));
+    }
+
+    public boolean contains(String key) {
+        return tryGet(key).isPresent();
+    }
+
+    public void commit() {
+        checkActive();
+        var batch = new WriteBatch();
+        changes.forEach((key, value) -> {
+            if (value.isPresent())
+                batch.put(key, value.get());
+            else
+                batch.delete(key);
+        });
+        storage.write(batch);
+        changes.clear();
+        state = State.COMMITTED;
+    }
+
+    public void rollback() {
+        checkActive();
+        changes.clear();
+        state = State.ROLLED_BACK;
+    }
+
+    /**
+     * Rolls back a transaction that was neither committed nor rolled back.
+     */
+    @Override
+    public void close() {
+        if (state == State.ACTIVE)
+            rollback();
+    }
+
+    private void checkActive() {
+        if (state != State.ACTIVE) throw new IllegalStateException("transaction is " + state.name().toLowerCase());
+    }
+}
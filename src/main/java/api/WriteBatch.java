@@ -0,0 +1,43 @@
+package api;
+
+import core.search.Key;
+import core.search.Mutation;
+import core.search.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+Changes that Serfer.write applies together: one pass over the tree, one log record.
+A later change of the same key overrides an earlier one.
+ */
+public class WriteBatch {
+    private final List<Mutation> mutations = new ArrayList<>();
+
+    public WriteBatch put(String key, SEntity value) {
+        mutations.add(Mutation.put(Key.from(key), new Value(SEntity.serialize(value))));
+        return this;
+    }
+
+    public WriteBatch delete(String key) {
+        mutations.add(Mutation.delete(Key.from(key)));
+        return this;
+    }
+
+    public int size() {
+        return mutations.size();
+    }
+
+    public boolean isEmpty() {
+        return mutations.isEmpty();
+    }
+
+    public void clear() {
+        mutations.clear();
+    }
+
+    List<Mutation> mutations() {
+        return Collections.unmodifiableList(mutations);
+    }
+}
@@ -0,0 +1,194 @@
+package api.importer;
+
+import api.SEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+Line formats of the import, one entry per line. Blank lines are skipped.
+Values that are whole numbers in int range become int entities, everything else a string.
+
+CSV: key,value with optional double quotes, "" inside quotes is a quote. Further columns are ignored.
+NDJSON: one flat json object per line, the key and the value are taken from the "key" and "value" fields.
+Only an unquoted integer literal becomes an int, a json string stays a string whatever it holds.
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON;
+
+    private static final Pattern JSON_INT = Pattern.compile("-?(0|[1-9][0-9]*)");
+
+    /**
+     * Entry of one line, null for a line without one.
+     */
+    Map.Entry<String, SEntity> parse(String line) {
+        if (line.isBlank())
+            return null;
+
+        return switch (this) {
+            case CSV -> parseCsv(line);
+            case NDJSON -> parseJson(line);
+        };
+    }
+
+    private static Map.Entry<String, SEntity> parseCsv(String line) {
+        List<String> columns = new ArrayList<>(2);
+        var column = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    column.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    column.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unclosed quote");
+        columns.add(column.toString());
+        if (columns.size() < 2) throw new IllegalArgumentException("expected key and value columns");
+
+        return Map.entry(columns.get(0), entity(columns.get(1).strip()));
+    }
+
+    private static Map.Entry<String, SEntity> parseJson(String line) {
+        var parser = new JsonLine(line);
+        Map<String, JsonValue> fields = parser.object();
+        if (!fields.containsKey("key") || !fields.containsKey("value"))
+            throw new IllegalArgumentException("expected \"key\" and \"value\" fields");
+
+        JsonValue value = fields.get("value");
+        boolean number = !value.quoted() && JSON_INT.matcher(value.text()).matches();
+        return Map.entry(fields.get("key").text(), number ? entity(value.text()) : SEntity.of(value.text()));
+    }
+
+    private static SEntity entity(String value) {
+        if (!value.isEmpty() && value.length() <= 11) {
+            try {
+                return SEntity.of(Integer.parseInt(value));
+            } catch (NumberFormatException ignored) {
+                // not an int, kept as text
+            }
+        }
+        return SEntity.of(value);
+    }
+
+    /*
+    Field value of a json line, quoted if it was a string literal.
+     */
+    private record JsonValue(String text, boolean quoted) {}
+
+    /*
+    Flat json object reader, nested objects and arrays are not supported.
+    Strings are unescaped, numbers and literals are kept as written.
+     */
+    private static class JsonLine {
+        private final String text;
+        private int position;
+
+        JsonLine(String text) {
+            this.text = text;
+        }
+
+        Map<String, JsonValue> object() {
+            Map<String, JsonValue> fields = new HashMap<>();
+            expect('{');
+            skipSpaces();
+            if (peek() == '}') {
+                position++;
+                return fields;
+            }
+            while (true) {
+                skipSpaces();
+                String name = string();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                boolean quoted = peek() == '"';
+                fields.put(name, new JsonValue(quoted ? string() : literal(), quoted));
+                skipSpaces();
+                if (peek() == ',') {
+                    position++;
+                    continue;
+                }
+                expect('}');
+                return fields;
+            }
+        }
+
+        private String string() {
+            expect('"');
+            var result = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"')
+                    return result.toString();
+                if (c != '\\') {
+                    result.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b' -> result.append('\b');
+                    case 'f' -> result.append('\f');
+                    case 'n' -> result.append('\n');
+                    case 'r' -> result.append('\r');
+                    case 't' -> result.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) throw new IllegalArgumentException("broken unicode escape");
+                        result.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> result.append(escaped);
+                }
+            }
+        }
+
+        private String literal() {
+            int start = position;
+            while (position < text.length() && ",} \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            if (start == position) throw new IllegalArgumentException("expected a value at " + start);
+            char first = text.charAt(start);
+            if (first == '{' || first == '[') throw new IllegalArgumentException("nested values are not supported");
+            return text.substring(start, position);
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private char peek() {
+            if (position >= text.length()) throw new IllegalArgumentException("unexpected end of line");
+            return text.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw new IllegalArgumentException("expected '" + c + "' at " + (position - 1));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package api.importer;
+
+import java.time.Duration;
+
+/*
+State of a running import. Entries and bytes count from the start of the current phase,
+bytes are only known while reading.
+ */
+public record ImportProgress(Phase phase, long entries, long bytes, Duration elapsed) {
+    public enum Phase {
+        /** parsing the input and spilling sorted runs */
+        READING,
+        /** merging the runs into the tree */
+        LOADING,
+        DONE
+    }
+
+    public double entriesPerSecond() {
+        double seconds = elapsed.toNanos() / 1e9;
+        return seconds > 0 ? entries / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d entries, %d bytes in %d ms (%.0f entries/s)",
+                phase, entries, bytes, elapsed.toMillis(), entriesPerSecond());
+    }
+}
@@ -0,0 +1,248 @@
+package api.importer;
+
+import api.SEntity;
+import api.Serfer;
+import core.search.Key;
+import core.search.Value;
+import core.search.btree.BTree;
+import core.sort.ExternalSorter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/*
+Bounded memory import of unsorted CSV or NDJSON dumps into an empty storage.
+Lines are parsed and handed to an external sort, which spills sorted runs to the temporary directory,
+the merged runs feed Serfer.load, so the tree is built bottom-up and every page is written once.
+A key that appears more than once keeps its last value.
+Progress is reported every progressInterval entries of a phase and once at the end of it.
+ */
+public class Importer {
+    public static final long DEFAULT_PROGRESS_INTERVAL = 100_000;
+
+    private final ImportFormat format;
+    private final long memoryBytes;
+    private final Path tempDirectory;
+    private final double fillFactor;
+    private final Consumer<ImportProgress> progressListener;
+    private final long progressInterval;
+
+    private Importer(Builder builder) {
+        this.format = builder.format;
+        this.memoryBytes = builder.memoryBytes;
+        this.tempDirectory = builder.tempDirectory;
+        this.fillFactor = builder.fillFactor;
+        this.progressListener = builder.progressListener;
+        this.progressInterval = builder.progressInterval;
+    }
+
+    public static Builder builder(ImportFormat format) {
+        return new Builder(format);
+    }
+
+    /**
+     * Imports every line of the files into the storage, which must be empty.
+     * Returns the final progress: the number of distinct keys loaded and the total time.
+     */
+    public ImportProgress importInto(Serfer storage, List<Path> files) throws IOException {
+        long started = System.nanoTime();
+        var reading = new Phase(ImportProgress.Phase.READING);
+        try (var sorter = new ExternalSorter(tempDirectory, memoryBytes)) {
+            Iterator<Map.Entry<Key, Value>> sorted;
+            try (var lines = new LineEntries(files, reading)) {
+                sorted = sorter.sort(lines);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            reading.report();
+
+            var loading = new Phase(ImportProgress.Phase.LOADING);
+            storage.load(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return sorted.hasNext();
+                }
+
+                @Override
+                public Map.Entry<String, SEntity> next() {
+                    var entry = sorted.next();
+                    loading.count(0);
+                    return Map.entry(entry.getKey().asString(), SEntity.deserialize(entry.getValue().value()));
+                }
+            }, fillFactor);
+            loading.report();
+
+            var done = new ImportProgress(ImportProgress.Phase.DONE, loading.entries, reading.bytes,
+                    Duration.ofNanos(System.nanoTime() - started));
+            publish(done);
+            return done;
+        }
+    }
+
+    public ImportProgress importInto(Serfer storage, Path file) throws IOException {
+        return importInto(storage, List.of(file));
+    }
+
+    private void publish(ImportProgress progress) {
+        if (progressListener != null)
+            progressListener.accept(progress);
+    }
+
+    private class Phase {
+        private final ImportProgress.Phase phase;
+        private final long started = System.nanoTime();
+        private long entries;
+        private long bytes;
+
+        Phase(ImportProgress.Phase phase) {
+            this.phase = phase;
+        }
+
+        void count(long lineBytes) {
+            entries++;
+            bytes += lineBytes;
+            if (entries % progressInterval == 0)
+                report();
+        }
+
+        void report() {
+            publish(new ImportProgress(phase, entries, bytes, Duration.ofNanos(System.nanoTime() - started)));
+        }
+    }
+
+    /*
+    Entries of all lines of the files in order, parse errors name the file and the line.
+     */
+    private class LineEntries implements Iterator<Map.Entry<Key, Value>>, AutoCloseable {
+        private final Iterator<Path> files;
+        private final Phase phase;
+        private BufferedReader reader;
+        private Path file;
+        private long lineNumber;
+        private Map.Entry<Key, Value> next;
+
+        LineEntries(List<Path> files, Phase phase) {
+            this.files = files.iterator();
+            this.phase = phase;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null)
+                next = read();
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Key, Value> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            var result = next;
+            next = null;
+            return result;
+        }
+
+        private Map.Entry<Key, Value> read() {
+            try {
+                while (true) {
+                    if (reader == null) {
+                        if (!files.hasNext())
+                            return null;
+                        file = files.next();
+                        reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                        lineNumber = 0;
+                    }
+
+                    String line = reader.readLine();
+                    if (line == null) {
+                        reader.close();
+                        reader = null;
+                        continue;
+                    }
+                    lineNumber++;
+
+                    Map.Entry<String, SEntity> entry;
+                    try {
+                        entry = format.parse(line);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                    }
+                    if (entry == null)
+                        continue;
+
+                    phase.count(line.length() + 1);
+                    return new AbstractMap.SimpleImmutableEntry<>(
+                            Key.from(entry.getKey()), new Value(SEntity.serialize(entry.getValue())));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null)
+                reader.close();
+        }
+    }
+
+    public static class Builder {
+        private final ImportFormat format;
+        private long memoryBytes = ExternalSorter.DEFAULT_MEMORY_BYTES;
+        private Path tempDirectory = Path.of(System.getProperty("java.io.tmpdir"));
+        private double fillFactor = BTree.DEFAULT_FILL_FACTOR;
+        private Consumer<ImportProgress> progressListener;
+        private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+        private Builder(ImportFormat format) {
+            if (format == null) throw new IllegalArgumentException("format cannot be null");
+            this.format = format;
+        }
+
+        /**
+         * Memory the sort may hold before it spills a run to disk. It also bounds the read buffers
+         * of the merge, and with that how many runs are read at once.
+         */
+        public Builder memory(long bytes) {
+            if (bytes < 1) throw new IllegalArgumentException("memory budget must be positive");
+            this.memoryBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Directory for the sorted runs, they are removed when the import ends.
+         */
+        public Builder tempDirectory(Path directory) {
+            if (directory == null) throw new IllegalArgumentException("directory cannot be null");
+            this.tempDirectory = directory;
+            return this;
+        }
+
+        public Builder fillFactor(double fillFactor) {
+            if (fillFactor <= 0 || fillFactor > 1) throw new IllegalArgumentException("fill factor must be in (0, 1]");
+            this.fillFactor = fillFactor;
+            return this;
+        }
+
+        public Builder progress(Consumer<ImportProgress> listener, long everyEntries) {
+            if (everyEntries < 1) throw new IllegalArgumentException("progress interval must be positive");
+            this.progressListener = listener;
+            this.progressInterval = everyEntries;
+            return this;
+        }
+
+        public Importer build() {
+            return new Importer(this);
+        }
+    }
+}
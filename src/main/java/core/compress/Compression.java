@@ -0,0 +1,13 @@
+package core.compress;
+
+public enum Compression {
+    /**
+     * Values are stored as they are.
+     */
+    NONE,
+    /**
+     * Values that get shorter are stored in the LZ4 block format, see Lz4.
+     * Reading them back costs far less than writing them.
+     */
+    LZ4
+}
@@ -0,0 +1,193 @@
+package core.compress;
+
+import java.util.Arrays;
+
+/*
+LZ4 block compression. The input is cut into sequences of literals followed by a match,
+a copy of bytes seen up to 64 KiB before. Matches are found through a hash table of 4 byte groups,
+with a single candidate per slot, which trades ratio for speed.
+
+Compressed structure:
+| original size | ||token| |literals size| |literals| |match offset| |match size|| * sequences |
+|    varint     | || 1b  | |  255 + ...  | |   Nb   | |   2b LE    | | 255 + ...|| * sequences |
+The token holds the literals size in the high 4 bits and the match size minus 4 in the low ones,
+15 means the size continues in the following bytes. The last sequence has literals only,
+and the last 5 bytes are always literals, as the LZ4 block format requires.
+ */
+public final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12; // no match starts in the last bytes
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    private static final int SKIP_TRIGGER = 6; // misses in a row before the search steps further
+
+    private Lz4() {}
+
+    public static byte[] compress(byte[] src) {
+        var out = new byte[maxCompressedSize(src.length)];
+        int op = writeVarInt(out, 0, src.length);
+        var table = new int[1 << HASH_BITS]; // position + 1 of the last group with the hash, 0 if none
+        int anchor = 0;
+        int ip = 0;
+        int misses = 0;
+        int limit = src.length - MATCH_FIND_LIMIT;
+
+        while (ip < limit) {
+            int group = readInt(src, ip);
+            int h = hash(group);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != group) {
+                ip += 1 + (misses++ >> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int end = ip + MIN_MATCH;
+            int matchLimit = src.length - LAST_LITERALS;
+            while (end < matchLimit && src[end] == src[ref + end - ip]) {
+                end++;
+            }
+
+            op = writeSequence(out, op, src, anchor, ip - anchor, ip - ref, end - ip - MIN_MATCH);
+            ip = end;
+            anchor = ip;
+        }
+        op = writeSequence(out, op, src, anchor, src.length - anchor, 0, -1);
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * Inverse of compress, a corrupted input fails with IllegalArgumentException.
+     */
+    public static byte[] decompress(byte[] src) {
+        return decompress(src, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as decompress(src), the original size is checked before the output is allocated:
+     * a block claiming more than maxSize or more than its bytes can encode is rejected as corrupted.
+     */
+    public static byte[] decompress(byte[] src, int maxSize) {
+        try {
+            int[] position = {0};
+            int size = readVarInt(src, position);
+            if (size < 0 || size > maxSize || size > maxDecompressedSize(src.length))
+                throw new IllegalArgumentException("corrupted lz4 block: original size " + size);
+            var out = new byte[size];
+            int ip = position[0];
+            int op = 0;
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, out, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == src.length)
+                    break;
+
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int match = token & 0x0F;
+                if (match == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+                if (offset == 0 || offset > op) throw new IllegalArgumentException("corrupted lz4 block");
+                for (int from = op - offset, to = op + match; op < to; ) {
+                    out[op++] = out[from++]; // the match may overlap the bytes it produces
+                }
+            }
+            if (op != out.length) throw new IllegalArgumentException("corrupted lz4 block");
+            return out;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("corrupted lz4 block", e);
+        }
+    }
+
+    static int maxCompressedSize(int size) {
+        return 5 + size + size / 255 + 16;
+    }
+
+    /*
+    A literal byte gives one byte, a match at most 19 for its token and offset and 255 for each length byte.
+     */
+    static long maxDecompressedSize(int compressedSize) {
+        return 255L * compressedSize;
+    }
+
+    /*
+    A match size of -1 writes the closing sequence, literals without a match.
+     */
+    private static int writeSequence(byte[] out, int op, byte[] src, int from, int literals, int offset, int match) {
+        int token = op++;
+        out[token] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15)
+            op = writeLength(out, op, literals - 15);
+        System.arraycopy(src, from, out, op, literals);
+        op += literals;
+        if (match < 0)
+            return op;
+
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        out[token] |= (byte) Math.min(match, 15);
+        if (match >= 15)
+            op = writeLength(out, op, match - 15);
+        return op;
+    }
+
+    private static int writeLength(byte[] out, int op, int length) {
+        for (; length >= 255; length -= 255) {
+            out[op++] = (byte) 255;
+        }
+        out[op++] = (byte) length;
+        return op;
+    }
+
+    private static int hash(int group) {
+        return (group * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) |
+                (bytes[offset + 1] & 0xFF) << 8 |
+                (bytes[offset + 2] & 0xFF) << 16 |
+                (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int writeVarInt(byte[] out, int op, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[op++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[op++] = (byte) value;
+        return op;
+    }
+
+    private static int readVarInt(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package core.memory;
+
+import core.memory.cache.EvictionPolicy;
+import core.memory.cache.PageCache;
+import core.metrics.MetricsRegistry;
+import core.page.PageDumper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/*
+Read-through, write-through page cache on top of another dumper.
+Pages are kept as heap copies and handed out as read-only views,
+so callers cannot corrupt cached content and each get owns its position.
+ */
+public class CachingPageDumper implements PageDumper {
+    private final PageDumper delegate;
+    private final PageCache<ByteBuffer> cache;
+    private long hits;
+    private long misses;
+    private long writes; // page changes so far, a read racing one of them is not cached
+
+    public CachingPageDumper(PageDumper delegate, long maxBytes, EvictionPolicy policy) {
+        if (maxBytes < delegate.pageSize()) throw new IllegalArgumentException("cache cannot hold a single page");
+        this.delegate = delegate;
+        this.cache = policy.create((int) Math.min(Integer.MAX_VALUE, maxBytes / delegate.pageSize()));
+    }
+
+    /**
+     * The dumper lock is held only for cache lookups, a miss is read without it.
+     * A page loaded while the same dumper was written to is not cached, it may be older than the write.
+     */
+    @Override
+    public ByteBuffer get(int idx) throws IOException {
+        long seenWrites;
+        synchronized (this) {
+            ByteBuffer page = cache.get(idx);
+            if (page != null) {
+                hits++;
+                return page.asReadOnlyBuffer();
+            }
+            misses++;
+            seenWrites = writes;
+        }
+
+        ByteBuffer page = copyOf(delegate.get(idx));
+        synchronized (this) {
+            if (writes == seenWrites)
+                cache.put(idx, page);
+        }
+        return page.asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized int set(ByteBuffer bytes) throws IOException {
+        ByteBuffer page = copyOf(bytes);
+        int idx = delegate.set(bytes);
+        writes++;
+        cache.put(idx, page);
+        return idx;
+    }
+
+    @Override
+    public synchronized void delete(int idx) throws IOException {
+        writes++;
+        cache.invalidate(idx);
+        delegate.delete(idx);
+    }
+
+    @Override
+    public synchronized void update(int idx, int offset, ByteBuffer bytes) throws IOException {
+        writes++;
+        ByteBuffer cached = cache.get(idx);
+        if (cached != null) {
+            ByteBuffer page = copyOf(cached); // views handed out earlier keep the old content
+            page.put(offset, bytes.duplicate().rewind(), 0, bytes.limit());
+            cache.put(idx, page);
+        }
+        delegate.update(idx, offset, bytes);
+    }
+
+    @Override
+    public int pageSize() {
+        return delegate.pageSize();
+    }
+
+    @Override
+    public void setRoot(int idx) throws IOException {
+        delegate.setRoot(idx);
+    }
+
+    @Override
+    public int getRoot() throws IOException {
+        return delegate.getRoot();
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        delegate.checkpoint();
+    }
+
+    @Override
+    public boolean needsRecovery() {
+        return delegate.needsRecovery();
+    }
+
+    @Override
+    public int pagesAwaitingCheckpoint() {
+        return delegate.pagesAwaitingCheckpoint();
+    }
+
+    @Override
+    public synchronized void recover(BitSet usedPages) throws IOException {
+        writes++;
+        cache.clear(); // free list pages are written over unreferenced ones
+        delegate.recover(usedPages);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        cache.clear();
+        delegate.close();
+    }
+
+    @Override
+    public synchronized void free() throws IOException {
+        cache.clear();
+        delegate.free();
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("cache.hits", this::getHits);
+        metrics.register("cache.misses", this::getMisses);
+        metrics.register("cache.pages", this::getCachedPages);
+        delegate.registerMetrics(metrics);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getCachedPages() {
+        return cache.size();
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer src) {
+        ByteBuffer view = src.duplicate().rewind();
+        ByteBuffer copy = ByteBuffer.allocate(view.remaining());
+        copy.put(view);
+        return copy.flip();
+    }
+}
@@ -0,0 +1,339 @@
+package core.memory;
+
+import core.metrics.MetricsRegistry;
+import core.page.PageDumper;
+import core.page.PagingConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+File layout shared by the file backed dumpers:
+| meta page | page 0 | page 1 | ... |
+Page allocation, free list and meta handling live here, subclasses only decide
+how page bytes are moved between memory and the file.
+The page size is given when the file is created and kept in the meta, an existing file keeps its own.
+
+Meta changes (root, free list head, next page index) are kept in memory and written
+only at checkpoint and close, the page file is not consistent in between anyway.
+
+In SHADOW_COPY mode work happens on a temporary copy of the file which replaces the original on close.
+In IN_PLACE mode the file is changed directly and checkpoint() is the durability point:
+pages are synced first, then the meta slot not holding the last checkpoint is written and synced.
+Pages freed since the last checkpoint may still be referenced by the checkpointed tree,
+they are kept aside and go to the free list only after the next checkpoint.
+After a crash the free list of the last checkpoint cannot be trusted, since pages popped from it
+were overwritten. It is dropped and recover() rebuilds it from the pages the tree still references,
+also when the crashed file is opened in SHADOW_COPY mode, the mode is not kept in the file.
+A page freed before the current root was published is unreachable from that root,
+so a checkpoint of that root releases it. Pages freed after it belong to a change in progress
+and wait for the following checkpoint.
+ */
+public abstract class FilePageDumper implements PageDumper {
+    protected final FileChannel dataChannel;
+    private final StorageMode mode;
+    private final Path dbFile;
+    private final Path tmpFile;
+    private final boolean isNew;
+    private final Object checkpointLock = new Object();
+    private final PageIoMetrics io = new PageIoMetrics();
+    private boolean needsRecovery;
+    private int pageSize; // the smallest one until the meta of an existing file is read
+    private List<Integer> freedSinceRoot;  // freed by a change whose root is not published yet
+    private List<Integer> freedBeforeRoot; // unreachable from the published root
+    private Meta meta;
+
+    protected FilePageDumper(Path dataPath, StorageMode mode, int pageSize) throws IOException {
+        this.mode = mode;
+        this.dbFile = dataPath;
+        this.tmpFile = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+        this.freedSinceRoot = new ArrayList<>();
+        this.freedBeforeRoot = new ArrayList<>();
+        if (!Files.exists(dbFile)) {
+            Files.createFile(dbFile);
+        }
+
+        Path workFile = dbFile;
+        if (mode == StorageMode.SHADOW_COPY) {
+            Files.copy(dbFile, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            io.bytesCopied.add(Files.size(tmpFile));
+            workFile = tmpFile;
+        }
+        dataChannel = FileChannel.open(workFile,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        isNew = dataChannel.size() < PagingConstants.MIN_PAGE_SIZE;
+        this.pageSize = isNew ? PagingConstants.checkPageSize(pageSize) : PagingConstants.MIN_PAGE_SIZE;
+    }
+
+    //region Page io
+    /**
+     * Reads a page worth of bytes at the given file offset, the buffer is positioned at the page start.
+     */
+    protected abstract ByteBuffer readPage(long offset) throws IOException;
+
+    /**
+     * Writes bytes from the buffer start up to its limit at the given file offset.
+     */
+    protected abstract void writePage(long offset, ByteBuffer bytes) throws IOException;
+
+    /**
+     * Makes every written page durable.
+     */
+    protected abstract void sync() throws IOException;
+
+    protected long pageOffset(int idx) {
+        return (long) (idx + 1) * pageSize;
+    }
+
+    private ByteBuffer read(long offset) throws IOException {
+        io.reads.increment();
+        io.bytesRead.add(pageSize);
+        return readPage(offset);
+    }
+
+    private void write(long offset, ByteBuffer bytes) throws IOException {
+        io.written(bytes.limit());
+        writePage(offset, bytes);
+    }
+
+    private void syncPages() throws IOException {
+        long start = System.nanoTime();
+        sync();
+        io.synced(start);
+    }
+    //endregion
+
+    @Override
+    public ByteBuffer get(int idx) throws IOException {
+        return read(pageOffset(idx));
+    }
+
+    @Override
+    public synchronized int set(ByteBuffer bytes) throws IOException {
+        int ref = UNDEFINED_REF;
+        if (meta == null) readMeta();
+        if (meta.freeListRef != UNDEFINED_REF) {
+            ref = meta.freeListRef;
+            var listPage = FreeList.decode(read(pageOffset(ref)));
+            meta.freeListRef = listPage.nextRef;
+            io.reused.increment();
+        } else {
+            ref = meta.nextNodeIdx++;
+            io.allocated.increment();
+        }
+
+        io.writes.increment();
+        write(pageOffset(ref), bytes);
+        return ref;
+    }
+
+    @Override
+    public synchronized void delete(int idx) throws IOException {
+        if (mode == StorageMode.IN_PLACE) {
+            freedSinceRoot.add(idx);
+            return;
+        }
+
+        release(idx);
+    }
+
+    @Override
+    public synchronized void update(int idx, int offset, ByteBuffer bytes) throws IOException {
+        if (offset < 0 || offset + bytes.limit() > pageSize) throw new IllegalArgumentException("update is out of the page");
+        io.updates.increment();
+        write(pageOffset(idx) + offset, bytes);
+    }
+
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public synchronized void setRoot(int idx) throws IOException {
+        meta.rootRef = idx;
+        freedBeforeRoot.addAll(freedSinceRoot);
+        freedSinceRoot.clear();
+    }
+
+    @Override
+    public int getRoot() {
+        if (meta == null) throw new IllegalStateException("Meta cannot be null");
+        return meta.rootRef;
+    }
+
+    @Override
+    public synchronized boolean needsRecovery() {
+        return needsRecovery;
+    }
+
+    @Override
+    public synchronized int pagesAwaitingCheckpoint() {
+        return freedSinceRoot.size() + freedBeforeRoot.size();
+    }
+
+    /**
+     * Every allocated page the owner does not use goes to the free list.
+     * They are unreachable from the checkpointed root as well, so they are reusable right away.
+     */
+    @Override
+    public synchronized void recover(BitSet usedPages) throws IOException {
+        if (!needsRecovery)
+            return;
+
+        for (int idx = Meta.FIRST_NODE_IDX; idx < meta.nextNodeIdx; idx++) {
+            if (!usedPages.get(idx))
+                release(idx);
+        }
+        needsRecovery = false;
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metrics) {
+        io.register(metrics);
+    }
+
+    public StorageMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Makes the last published root and everything reachable from it durable while the dumper stays open.
+     * In IN_PLACE mode the dumper lock is only held to take the meta snapshot and to release pages,
+     * page writes go on during the syncs. In SHADOW_COPY mode the working copy replaces the original file,
+     * which holds the lock for the whole copy.
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            if (mode == StorageMode.SHADOW_COPY) {
+                replaceOriginal();
+                return;
+            }
+
+            Meta snapshot;
+            List<Integer> released;
+            synchronized (this) {
+                meta.sequence++;
+                snapshot = new Meta(meta.rootRef, meta.freeListRef, meta.nextNodeIdx);
+                snapshot.sequence = meta.sequence;
+                snapshot.clean = meta.clean;
+                snapshot.pageSize = meta.pageSize;
+                released = freedBeforeRoot;
+                freedBeforeRoot = new ArrayList<>();
+            }
+
+            syncPages();
+            io.metaWrites.increment();
+            write(Meta.slotOffset(snapshot), Meta.encode(snapshot));
+            syncPages();
+
+            synchronized (this) {
+                for (int idx : released) {
+                    release(idx);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                if (!dataChannel.isOpen())
+                    return;
+
+                if (mode == StorageMode.IN_PLACE) {
+                    freedBeforeRoot.addAll(freedSinceRoot); // nothing is in progress once the owner closes
+                    freedSinceRoot.clear();
+                    checkpoint();
+                    meta.clean = true;
+                    checkpoint(); // the free list now holds every released page and can be trusted on next open
+                    dataChannel.close();
+                    return;
+                }
+
+                writeMeta();
+                syncPages(); // atomic transactions - guarantee to write the updates on commit
+                dataChannel.close();
+
+                Files.move(tmpFile, dbFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    @Override
+    public void free() throws IOException {
+        close();
+        Files.delete(dbFile);
+    }
+
+    /**
+     * Must be called by subclasses once their own state is ready.
+     */
+    protected void initialize() throws IOException {
+        if (isNew) {
+            meta = new Meta(UNDEFINED_REF, UNDEFINED_REF);
+            meta.pageSize = pageSize;
+            writeMeta();
+        } else {
+            readMeta();
+            pageSize = PagingConstants.checkPageSize(meta.pageSize);
+        }
+
+        if (!meta.clean) {
+            // an IN_PLACE run did not close, whatever the mode of this open: pages popped from the free list
+            // after its last checkpoint were overwritten, so the checkpointed list cannot be followed
+            meta.freeListRef = UNDEFINED_REF;
+            needsRecovery = true;
+        }
+        if (mode == StorageMode.IN_PLACE) {
+            meta.clean = false;
+            writeMeta();
+            syncPages();
+        } else {
+            meta.clean = true; // the working copy replaces the original only after the owner recovered it
+        }
+    }
+
+    private synchronized void replaceOriginal() throws IOException {
+        writeMeta();
+        syncPages();
+        Path checkpointFile = dbFile.resolveSibling(dbFile.getFileName() + ".ckpt");
+        Files.copy(tmpFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        io.bytesCopied.add(Files.size(checkpointFile));
+        Files.move(checkpointFile, dbFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void release(int idx) throws IOException {
+        var listPage = new FreeList();
+        listPage.nextRef = meta.freeListRef;
+        io.released.increment();
+        io.writes.increment();
+        write(pageOffset(idx), FreeList.encode(listPage, pageSize));
+
+        meta.freeListRef = idx;
+    }
+
+    private void writeMeta() throws IOException {
+        assert meta != null;
+        meta.sequence++;
+        io.metaWrites.increment();
+        write(Meta.slotOffset(meta), Meta.encode(meta));
+    }
+
+    private void readMeta() throws IOException {
+        meta = Meta.decode(read(0));
+    }
+}
@@ -1,15 +1,14 @@
 package core.memory;
 
 import core.page.Page;
-import core.page.PagingConstants;
 
 import java.nio.ByteBuffer;
 
 public class FreeList implements Page {
     public int nextRef;
 
-    public static ByteBuffer encode(FreeList listPage) {
-        var buffer = ByteBuffer.allocate(PagingConstants.PAGE_SIZE);
+    public static ByteBuffer encode(FreeList listPage, int pageSize) {
+        var buffer = ByteBuffer.allocate(pageSize);
         buffer.putInt(listPage.nextRef);
 
         return buffer;
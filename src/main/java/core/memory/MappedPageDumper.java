@@ -0,0 +1,99 @@
+package core.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
+import static core.page.PagingConstants.MIN_PAGE_SIZE;
+
+/*
+Keeps the file mapped in chunks, every chunk but the last one is CHUNK_SIZE long.
+Only the file is mapped: the last chunk is remapped, twice as long each time, when a page
+past its end is written, since mapping past the end extends the file. An old mapping is only
+dropped once the garbage collector gets to it, so doubling keeps their number low.
+Chunks are a multiple of every page size, so no page crosses two of them.
+get returns a read-only slice of the mapping, no copy and no syscall.
+The slice reflects later writes to the same page, so it must be consumed
+before the page can be freed and reused.
+ */
+public final class MappedPageDumper extends FilePageDumper {
+    public static final int CHUNK_PAGES = 256; // of the default size
+    private static final long CHUNK_SIZE = (long) CHUNK_PAGES * DEFAULT_PAGE_SIZE;
+
+    private volatile MappedByteBuffer[] chunks; // by chunk index, the last one may be shorter
+
+    public MappedPageDumper(Path dataPath) throws IOException {
+        this(dataPath, StorageMode.SHADOW_COPY);
+    }
+
+    public MappedPageDumper(Path dataPath, StorageMode mode) throws IOException {
+        this(dataPath, mode, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * The page size is used only when the file is created.
+     */
+    public MappedPageDumper(Path dataPath, StorageMode mode, int pageSize) throws IOException {
+        super(dataPath, mode, pageSize);
+        chunks = new MappedByteBuffer[0];
+        ensureMapped(Math.max(dataChannel.size(), MIN_PAGE_SIZE));
+        initialize();
+    }
+
+    @Override
+    protected ByteBuffer readPage(long offset) throws IOException {
+        MappedByteBuffer chunk = chunkFor(offset);
+        return chunk.slice((int) (offset % CHUNK_SIZE), pageSize()).asReadOnlyBuffer();
+    }
+
+    @Override
+    protected void writePage(long offset, ByteBuffer bytes) throws IOException {
+        MappedByteBuffer chunk = chunkFor(offset);
+        bytes.rewind();
+        chunk.put((int) (offset % CHUNK_SIZE), bytes, 0, Math.min(bytes.limit(), pageSize()));
+    }
+
+    @Override
+    protected void sync() throws IOException {
+        for (var chunk : chunks) {
+            chunk.force();
+        }
+        dataChannel.force(true);
+    }
+
+    /*
+    Chunk holding the whole page the offset is in.
+     */
+    private MappedByteBuffer chunkFor(long offset) throws IOException {
+        int chunkIdx = (int) (offset / CHUNK_SIZE);
+        long pageEnd = (offset / pageSize() + 1) * pageSize();
+        var mapped = chunks;
+        if (chunkIdx < mapped.length && pageEnd - chunkIdx * CHUNK_SIZE <= mapped[chunkIdx].capacity())
+            return mapped[chunkIdx];
+
+        ensureMapped(pageEnd);
+        return chunks[chunkIdx];
+    }
+
+    /*
+    Maps the file up to the end offset at least.
+     */
+    private synchronized void ensureMapped(long end) throws IOException {
+        int needed = (int) ((end - 1) / CHUNK_SIZE) + 1;
+        var grown = Arrays.copyOf(chunks, Math.max(needed, chunks.length));
+        for (int i = 0; i < needed; i++) {
+            long chunkStart = i * CHUNK_SIZE;
+            long size = Math.min(end - chunkStart, CHUNK_SIZE);
+            if (grown[i] != null && grown[i].capacity() >= size)
+                continue;
+            if (grown[i] != null)
+                size = Math.min(Math.max(size, 2L * grown[i].capacity()), CHUNK_SIZE);
+            grown[i] = dataChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart, size);
+        }
+        chunks = grown;
+    }
+}
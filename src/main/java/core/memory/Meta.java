@@ -5,45 +5,118 @@ import core.page.PagingConstants;
 
 import java.io.InvalidObjectException;
 import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
 
 import static core.page.PagingConstants.UNDEFINED_REF;
 
+/*
+Meta page holds two slots, every write goes to the slot the previous write did not use,
+so a torn meta write never destroys the last committed meta.
+Slot structure:
+| root ref | free list ref | next node idx | sequence | clean | page size | crc32 |
+|    4b    |      4b       |      4b       |    8b    |  1b   |    4b     |  4b   |
+Slot 0 starts at the page start, slot 1 in the middle of the smallest page, so both are read
+before the page size of the file is known.
+Slots written before the page size was kept have no page size field, the file has 4 KiB pages then.
+Files written before slots existed only have the first three fields in slot 0 and no crc.
+ */
 public class Meta implements Page {
+    public static final int SLOT_SIZE = 4 + 4 + 4 + 8 + 1 + 4 + 4;
+    public static final int FIRST_NODE_IDX = 1;
+    private static final int UNSIZED_SLOT_SIZE = SLOT_SIZE - 4;
+    private static final int SECOND_SLOT_OFFSET = PagingConstants.MIN_PAGE_SIZE / 2;
+
     public int rootRef;
     public int freeListRef;
     public int nextNodeIdx;
+    public long sequence;
+    public boolean clean;
+    public int pageSize = PagingConstants.DEFAULT_PAGE_SIZE;
 
     public Meta(int rootRef) {
         this.rootRef = rootRef;
         freeListRef = UNDEFINED_REF;
-        nextNodeIdx = 1;
+        nextNodeIdx = FIRST_NODE_IDX;
+        clean = true;
     }
 
     public Meta(int rootRef, int freeListRef) {
         this.rootRef = rootRef;
         this.freeListRef = freeListRef;
-        nextNodeIdx = 1;
+        nextNodeIdx = FIRST_NODE_IDX;
+        clean = true;
     }
 
     public Meta(int rootRef, int freeListRef, int  nextNodeIdx) {
         this.rootRef = rootRef;
         this.freeListRef = freeListRef;
         this.nextNodeIdx = nextNodeIdx;
+        clean = true;
+    }
+
+    /**
+     * File offset of the slot this meta is written to.
+     */
+    public static int slotOffset(Meta page) {
+        return page.sequence % 2 == 0 ? 0 : SECOND_SLOT_OFFSET;
     }
 
     public static ByteBuffer encode(Meta page) {
-        ByteBuffer buffer = ByteBuffer.allocate(PagingConstants.PAGE_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
         buffer.putInt(page.rootRef);
         buffer.putInt(page.freeListRef);
         buffer.putInt(page.nextNodeIdx);
+        buffer.putLong(page.sequence);
+        buffer.put((byte) (page.clean ? 1 : 0));
+        buffer.putInt(page.pageSize);
+        buffer.putInt(checksum(buffer.array(), SLOT_SIZE));
         return buffer.flip();
     }
 
     public static Meta decode(ByteBuffer buffer) throws InvalidObjectException {
-        if (buffer.capacity() < PagingConstants.PAGE_SIZE) throw new RuntimeException("Error decoding meta page");
-        var meta = new Meta(buffer.getInt());
-        meta.freeListRef = buffer.getInt();
-        meta.nextNodeIdx = buffer.getInt();
+        if (buffer.capacity() < PagingConstants.MIN_PAGE_SIZE) throw new RuntimeException("Error decoding meta page");
+
+        Meta first = decodeSlot(buffer, 0);
+        Meta second = decodeSlot(buffer, SECOND_SLOT_OFFSET);
+        if (first == null && second == null)
+            return decodeLegacy(buffer);
+        if (first == null)
+            return second;
+        if (second == null)
+            return first;
+        return first.sequence > second.sequence ? first : second;
+    }
+
+    private static Meta decodeSlot(ByteBuffer buffer, int offset) {
+        var slot = new byte[SLOT_SIZE];
+        buffer.get(offset, slot);
+        var slotBuffer = ByteBuffer.wrap(slot);
+
+        var meta = new Meta(slotBuffer.getInt());
+        meta.freeListRef = slotBuffer.getInt();
+        meta.nextNodeIdx = slotBuffer.getInt();
+        meta.sequence = slotBuffer.getLong();
+        meta.clean = slotBuffer.get() == 1;
+        meta.pageSize = slotBuffer.getInt();
+        if (slotBuffer.getInt() == checksum(slot, SLOT_SIZE))
+            return meta;
+
+        meta.pageSize = PagingConstants.DEFAULT_PAGE_SIZE;
+        if (slotBuffer.getInt(UNSIZED_SLOT_SIZE - 4) == checksum(slot, UNSIZED_SLOT_SIZE))
+            return meta;
+        return null;
+    }
+
+    private static Meta decodeLegacy(ByteBuffer buffer) {
+        var meta = new Meta(buffer.getInt(0));
+        meta.freeListRef = buffer.getInt(4);
+        meta.nextNodeIdx = buffer.getInt(8);
         return meta;
     }
+
+    private static int checksum(byte[] slot, int slotSize) {
+        var crc = new CRC32();
+        crc.update(slot, 0, slotSize - 4);
+        return (int) crc.getValue();
+    }
 }
@@ -0,0 +1,55 @@
+package core.memory;
+
+import core.metrics.Counter;
+import core.metrics.Histogram;
+import core.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Io counters of a file backed dumper. They count from the moment the dumper is created,
+registering only makes them visible.
+ */
+class PageIoMetrics {
+    final Counter reads = new Counter();
+    final Counter writes = new Counter();   // whole pages, free list pages included
+    final Counter updates = new Counter();  // in-place patches of live pages
+    final Counter metaWrites = new Counter();
+    final Counter bytesRead = new Counter();
+    final Counter bytesWritten = new Counter();
+    final Counter bytesCopied = new Counter(); // whole file copies of SHADOW_COPY mode
+    final Counter allocated = new Counter(); // pages appended to the file
+    final Counter reused = new Counter();    // pages taken from the free list
+    final Counter released = new Counter();  // pages put on the free list
+    final Counter syncs = new Counter();
+    final Counter bytesSynced = new Counter();
+    final Histogram syncLatency = new Histogram();
+    private final AtomicLong unsynced = new AtomicLong();
+
+    void written(long bytes) {
+        bytesWritten.add(bytes);
+        unsynced.addAndGet(bytes);
+    }
+
+    void synced(long start) {
+        syncLatency.recordSince(start);
+        syncs.increment();
+        bytesSynced.add(unsynced.getAndSet(0));
+    }
+
+    void register(MetricsRegistry metrics) {
+        metrics.register("pages.reads", reads);
+        metrics.register("pages.writes", writes);
+        metrics.register("pages.updates", updates);
+        metrics.register("pages.meta.writes", metaWrites);
+        metrics.register("pages.bytes.read", bytesRead);
+        metrics.register("pages.bytes.written", bytesWritten);
+        metrics.register("pages.bytes.copied", bytesCopied);
+        metrics.register("pages.allocated", allocated);
+        metrics.register("pages.reused", reused);
+        metrics.register("pages.released", released);
+        metrics.register("pages.syncs", syncs);
+        metrics.register("pages.bytes.synced", bytesSynced);
+        metrics.register("pages.sync", syncLatency);
+    }
+}
@@ -0,0 +1,25 @@
+package core.memory;
+
+import core.page.PagingConstants;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public enum StorageEngine {
+    FILE_CHANNEL,
+    MEMORY_MAPPED;
+
+    public FilePageDumper open(Path dataPath, StorageMode mode) throws IOException {
+        return open(dataPath, mode, PagingConstants.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * The page size is used only when the file is created, an existing file keeps its own.
+     */
+    public FilePageDumper open(Path dataPath, StorageMode mode, int pageSize) throws IOException {
+        return switch (this) {
+            case FILE_CHANNEL -> new DiskPageDumper(dataPath, mode, pageSize);
+            case MEMORY_MAPPED -> new MappedPageDumper(dataPath, mode, pageSize);
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package core.memory;
+
+public enum StorageMode {
+    /**
+     * Works on a temporary copy of the file that replaces the original on close.
+     * Opening and closing copy the whole file, anything not closed is lost.
+     */
+    SHADOW_COPY,
+    /**
+     * Works on the file itself. Freed pages are not reused until a checkpoint made the meta
+     * that no longer references them durable, so the last checkpointed tree is never overwritten.
+     */
+    IN_PLACE
+}
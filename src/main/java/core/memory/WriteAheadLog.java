@@ -0,0 +1,374 @@
+package core.memory;
+
+import core.exception.StorageAccessException;
+import core.metrics.Counter;
+import core.metrics.Histogram;
+import core.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+Append only log of logical operations, replayed on open to redo everything
+that happened after the last time the page file was made durable.
+
+Record structure:
+| payload size | crc32 of payload | op count | ||op type| |key size| |key| |value size| |value|| * op count |
+|      4b      |        4b        |    4b    | ||  1b   | |   2b   | |Nb | |    4b    | |  Nb || * op count |
+delete operations have no value part. All operations of a record are replayed or none of them.
+
+Group commit: append only copies the record to memory and returns its log position.
+A flusher thread writes and syncs everything appended so far once commitBytes are pending
+or commitInterval passed since the oldest pending record, and sync(position) waits for that.
+Concurrent writers waiting for sync share one fsync.
+
+Checkpoints seal the current log under a second name and start an empty one, the sealed log
+is dropped once the checkpoint is durable. Replay goes through the sealed log first.
+Replaying a change that already reached the page file is harmless, every operation is a blind write.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    public static final Duration DEFAULT_COMMIT_INTERVAL = Duration.ofMillis(2);
+    public static final int DEFAULT_COMMIT_BYTES = 64 * 1024;
+
+    private static final int HEADER_SIZE = 4 + 4;
+
+    public enum OperationType {
+        INSERT,
+        DELETE
+    }
+
+    public record Operation(OperationType type, byte[] key, byte[] value) {
+        public static Operation insert(byte[] key, byte[] value) {
+            return new Operation(OperationType.INSERT, key, value);
+        }
+
+        public static Operation delete(byte[] key) {
+            return new Operation(OperationType.DELETE, key, null);
+        }
+    }
+
+    private final Path logPath;
+    private final Path sealedPath;
+    private FileChannel channel;
+    private final long commitIntervalNanos;
+    private final int commitBytes;
+    private final Thread flusher;
+    private final Counter syncs = new Counter();
+    private final Counter bytesSynced = new Counter();
+    private final Histogram syncLatency = new Histogram(); // write and fsync of one group of records
+
+    private ByteArrayOutputStream pending;
+    private long pendingSince;
+    private long appendedPosition; // log position after the last appended record
+    private long durablePosition;  // log position everything before is synced
+    private long fileStart;        // log position of the first byte in the current file, positions never go back
+    private IOException flushError;
+    private boolean closed;
+
+    public WriteAheadLog(Path logPath) throws IOException {
+        this(logPath, DEFAULT_COMMIT_INTERVAL, DEFAULT_COMMIT_BYTES);
+    }
+
+    public WriteAheadLog(Path logPath, Duration commitInterval, int commitBytes) throws IOException {
+        if (commitInterval.isNegative()) throw new IllegalArgumentException("commit interval cannot be negative");
+        if (commitBytes < 1) throw new IllegalArgumentException("commit size must be positive");
+
+        this.logPath = logPath;
+        this.sealedPath = logPath.resolveSibling(logPath.getFileName() + ".old");
+        this.channel = openLog(logPath);
+        this.commitIntervalNanos = commitInterval.toNanos();
+        this.commitBytes = commitBytes;
+        this.pending = new ByteArrayOutputStream();
+        this.appendedPosition = channel.size();
+        this.durablePosition = appendedPosition;
+
+        flusher = new Thread(this::flushLoop, "serfer-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Applies every complete record of the sealed and the current log in order. A torn or corrupted tail,
+     * left by a crash in the middle of a write, is cut off.
+     */
+    public synchronized void replay(Consumer<Operation> apply) throws IOException {
+        if (Files.exists(sealedPath)) {
+            try (var sealed = FileChannel.open(sealedPath, StandardOpenOption.READ)) {
+                replay(sealed, apply);
+            }
+        }
+
+        long position = replay(channel, apply);
+        if (position < channel.size()) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        appendedPosition = fileStart + position;
+        durablePosition = appendedPosition;
+    }
+
+    private static long replay(FileChannel log, Consumer<Operation> apply) throws IOException {
+        long position = 0;
+        long size = log.size();
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            log.read(header, position);
+            header.flip();
+            int payloadSize = header.getInt();
+            int crc = header.getInt();
+            if (payloadSize < 4 || position + HEADER_SIZE + payloadSize > size)
+                break;
+
+            var payload = ByteBuffer.allocate(payloadSize);
+            log.read(payload, position + HEADER_SIZE);
+            if (checksum(payload.array()) != crc)
+                break;
+
+            decode(payload.flip()).forEach(apply);
+            position += HEADER_SIZE + payloadSize;
+        }
+        return position;
+    }
+
+    public long append(Operation operation) {
+        return append(List.of(operation));
+    }
+
+    /**
+     * Adds the operations as one atomic record and returns the log position to pass to sync.
+     */
+    public synchronized long append(List<Operation> operations) {
+        if (closed) throw new IllegalStateException("write ahead log is closed");
+
+        byte[] payload = encode(operations);
+        var header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(payload.length)
+                .putInt(checksum(payload));
+
+        if (pending.size() == 0)
+            pendingSince = System.nanoTime();
+        pending.writeBytes(header.array());
+        pending.writeBytes(payload);
+        appendedPosition += HEADER_SIZE + payload.length;
+
+        notifyAll();
+        return appendedPosition;
+    }
+
+    /**
+     * Blocks until everything up to the position is durable.
+     */
+    public synchronized void sync(long position) {
+        while (durablePosition < position) {
+            if (flushError != null)
+                throw new StorageAccessException("write ahead log flush failed", flushError);
+            if (closed)
+                throw new IllegalStateException("write ahead log is closed");
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageAccessException("interrupted while waiting for log sync", e);
+            }
+        }
+    }
+
+    /**
+     * Drops every record, called once the page file holds all logged changes.
+     */
+    public synchronized void truncate() throws IOException {
+        sync(appendedPosition);
+        channel.truncate(0);
+        channel.force(true);
+        fileStart = appendedPosition;
+        Files.deleteIfExists(sealedPath);
+    }
+
+    /**
+     * Moves every record appended so far to the sealed log and continues in an empty one.
+     * If a sealed log is still there, its checkpoint did not finish and nothing is moved,
+     * the records stay in the current log and are dropped by a later checkpoint.
+     */
+    public synchronized void seal() throws IOException {
+        if (Files.exists(sealedPath))
+            return;
+
+        sync(appendedPosition);
+        channel.close();
+        Files.move(logPath, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+        channel = openLog(logPath);
+        fileStart = appendedPosition;
+    }
+
+    /**
+     * Drops the sealed log, called once the checkpoint taken after seal is durable.
+     */
+    public synchronized void dropSealed() throws IOException {
+        Files.deleteIfExists(sealedPath);
+    }
+
+    public synchronized long size() {
+        return appendedPosition - fileStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            sync(appendedPosition);
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("wal.syncs", syncs);
+        metrics.register("wal.bytes.synced", bytesSynced);
+        metrics.register("wal.sync", syncLatency);
+        metrics.register("wal.size", this::size);
+    }
+
+    public void free() throws IOException {
+        close();
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(sealedPath);
+    }
+
+    private static FileChannel openLog(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            long batchEnd;
+            long writeAt;
+            FileChannel target;
+            synchronized (this) {
+                while (!closed && pending.size() == 0) {
+                    waitQuietly(0);
+                }
+                if (closed)
+                    return;
+
+                long deadline = pendingSince + commitIntervalNanos;
+                long now;
+                while (!closed && pending.size() < commitBytes && (now = System.nanoTime()) < deadline) {
+                    waitQuietly(deadline - now);
+                }
+
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                batchEnd = appendedPosition;
+                writeAt = batchEnd - batch.length - fileStart;
+                target = channel;
+            }
+
+            try {
+                long start = System.nanoTime();
+                var buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    writeAt += target.write(buffer, writeAt);
+                }
+                target.force(false);
+                syncLatency.recordSince(start);
+                syncs.increment();
+                bytesSynced.add(batch.length);
+            } catch (IOException e) {
+                synchronized (this) {
+                    flushError = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                durablePosition = Math.max(durablePosition, batchEnd);
+                notifyAll();
+            }
+        }
+    }
+
+    private void waitQuietly(long nanos) {
+        try {
+            if (nanos <= 0) {
+                wait();
+            } else {
+                wait(nanos / 1_000_000, (int) (nanos % 1_000_000));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //region Record encoding
+    private static byte[] encode(List<Operation> operations) {
+        int size = 4;
+        for (var op : operations) {
+            size += 1 + 2 + op.key().length;
+            if (op.type() == OperationType.INSERT)
+                size += 4 + op.value().length;
+        }
+
+        var buffer = ByteBuffer.allocate(size);
+        buffer.putInt(operations.size());
+        for (var op : operations) {
+            buffer.put((byte) op.type().ordinal());
+            buffer.putShort((short) op.key().length);
+            buffer.put(op.key());
+            if (op.type() == OperationType.INSERT) {
+                buffer.putInt(op.value().length);
+                buffer.put(op.value());
+            }
+        }
+        return buffer.array();
+    }
+
+    private static List<Operation> decode(ByteBuffer payload) {
+        int count = payload.getInt();
+        List<Operation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            var type = OperationType.values()[payload.get()];
+            var key = new byte[payload.getShort()];
+            payload.get(key);
+            if (type == OperationType.INSERT) {
+                var value = new byte[payload.getInt()];
+                payload.get(value);
+                operations.add(Operation.insert(key, value));
+            } else {
+                operations.add(Operation.delete(key));
+            }
+        }
+        return operations;
+    }
+
+    private static int checksum(byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+    //endregion
+}
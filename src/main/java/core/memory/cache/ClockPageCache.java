@@ -0,0 +1,102 @@
+package core.memory.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+Second chance cache: hits only set a reference bit, the hand clears bits
+and evicts the first slot that was not referenced since the last pass.
+ */
+public class ClockPageCache<V> implements PageCache<V> {
+    private final int capacity;
+    private final int[] slotKeys;
+    private final Object[] slotValues;
+    private final boolean[] referenced;
+    private final Map<Integer, Integer> slots;
+    private int hand;
+
+    public ClockPageCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("cache capacity must be positive");
+        this.capacity = capacity;
+        slotKeys = new int[capacity];
+        slotValues = new Object[capacity];
+        referenced = new boolean[capacity];
+        slots = new HashMap<>();
+        Arrays.fill(slotKeys, UNDEFINED_REF);
+        hand = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int idx) {
+        Integer slot = slots.get(idx);
+        if (slot == null)
+            return null;
+
+        referenced[slot] = true;
+        return (V) slotValues[slot];
+    }
+
+    @Override
+    public void put(int idx, V value) {
+        Integer slot = slots.get(idx);
+        if (slot != null) {
+            slotValues[slot] = value;
+            referenced[slot] = true;
+            return;
+        }
+
+        int victim = nextVictim();
+        if (slotKeys[victim] != UNDEFINED_REF)
+            slots.remove(slotKeys[victim]);
+
+        slotKeys[victim] = idx;
+        slotValues[victim] = value;
+        referenced[victim] = false;
+        slots.put(idx, victim);
+    }
+
+    @Override
+    public void invalidate(int idx) {
+        Integer slot = slots.remove(idx);
+        if (slot == null)
+            return;
+
+        slotKeys[slot] = UNDEFINED_REF;
+        slotValues[slot] = null;
+        referenced[slot] = false;
+    }
+
+    @Override
+    public void clear() {
+        slots.clear();
+        Arrays.fill(slotKeys, UNDEFINED_REF);
+        Arrays.fill(slotValues, null);
+        Arrays.fill(referenced, false);
+        hand = 0;
+    }
+
+    @Override
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    private int nextVictim() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % capacity;
+
+            if (slotKeys[slot] == UNDEFINED_REF || !referenced[slot])
+                return slot;
+            referenced[slot] = false;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package core.memory.cache;
+
+public enum EvictionPolicy {
+    LRU,
+    CLOCK,
+    TWO_QUEUE;
+
+    public <V> PageCache<V> create(int capacity) {
+        return switch (this) {
+            case LRU -> new LruPageCache<>(capacity);
+            case CLOCK -> new ClockPageCache<>(capacity);
+            case TWO_QUEUE -> new TwoQueuePageCache<>(capacity);
+        };
+    }
+}
@@ -0,0 +1,50 @@
+package core.memory.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruPageCache<V> implements PageCache<V> {
+    private final int capacity;
+    private final LinkedHashMap<Integer, V> entries;
+
+    public LruPageCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("cache capacity must be positive");
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+                return size() > LruPageCache.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public V get(int idx) {
+        return entries.get(idx);
+    }
+
+    @Override
+    public void put(int idx, V value) {
+        entries.put(idx, value);
+    }
+
+    @Override
+    public void invalidate(int idx) {
+        entries.remove(idx);
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
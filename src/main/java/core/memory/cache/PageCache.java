@@ -0,0 +1,16 @@
+package core.memory.cache;
+
+/*
+Bounded cache keyed by page index. Implementations decide what to evict
+when capacity is reached, callers only see get/put/invalidate.
+Implementations are not thread safe, owner is responsible for locking.
+ */
+public interface PageCache<V> {
+    public V get(int idx);
+    public void put(int idx, V value);
+    public void invalidate(int idx);
+    public void clear();
+
+    public int size();
+    public int capacity();
+}
@@ -0,0 +1,106 @@
+package core.memory.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/*
+2Q cache (Johnson, Shasha): pages seen once live in a FIFO (in), evicted
+keys are remembered in a ghost queue (out) and a page requested again while
+its key is still in out is promoted to the main LRU queue (main).
+One-shot reads, like a full scan, never push hot pages out of main.
+ */
+public class TwoQueuePageCache<V> implements PageCache<V> {
+    private final int capacity;
+    private final int inCapacity;
+    private final int outCapacity;
+
+    private final LinkedHashMap<Integer, V> in;
+    private final LinkedHashSet<Integer> out;
+    private final LinkedHashMap<Integer, V> main;
+
+    public TwoQueuePageCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("cache capacity must be positive");
+        this.capacity = capacity;
+        this.inCapacity = Math.max(1, capacity / 4);
+        this.outCapacity = Math.max(1, capacity / 2);
+
+        in = new LinkedHashMap<>();
+        out = new LinkedHashSet<>();
+        main = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public V get(int idx) {
+        V value = main.get(idx);
+        if (value != null)
+            return value;
+
+        return in.get(idx);
+    }
+
+    @Override
+    public void put(int idx, V value) {
+        if (main.containsKey(idx)) {
+            main.put(idx, value);
+            return;
+        }
+        if (in.containsKey(idx)) {
+            in.put(idx, value);
+            return;
+        }
+
+        reclaim();
+        if (out.remove(idx)) {
+            main.put(idx, value);
+        } else {
+            in.put(idx, value);
+        }
+    }
+
+    @Override
+    public void invalidate(int idx) {
+        if (main.remove(idx) != null)
+            return;
+        if (in.remove(idx) != null)
+            return;
+        out.remove(idx);
+    }
+
+    @Override
+    public void clear() {
+        in.clear();
+        out.clear();
+        main.clear();
+    }
+
+    @Override
+    public int size() {
+        return in.size() + main.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    private void reclaim() {
+        if (size() < capacity)
+            return;
+
+        if (in.size() > inCapacity || main.isEmpty()) {
+            int evicted = removeFirst(in.keySet().iterator());
+            out.add(evicted);
+            if (out.size() > outCapacity)
+                removeFirst(out.iterator());
+        } else {
+            removeFirst(main.keySet().iterator());
+        }
+    }
+
+    private static int removeFirst(Iterator<Integer> iterator) {
+        int first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+}
@@ -0,0 +1,22 @@
+package core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Monotonic count, updated from many threads without contention or allocation.
+ */
+public final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,9 @@
+package core.metrics;
+
+/*
+Value read when metrics are collected, like a size or a depth.
+ */
+@FunctionalInterface
+public interface Gauge {
+    long get();
+}
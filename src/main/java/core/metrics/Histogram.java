@@ -0,0 +1,101 @@
+package core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Distribution of non-negative values, latencies in nanoseconds by convention.
+Values below 64 get a bucket each, above that every power of two is cut into 32 buckets,
+so a reported quantile is at most about 3% above the true one. Recording is a few atomic adds, no allocation and no lock.
+ */
+public final class Histogram {
+    private static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 6; // values below 1 << SUB_BITS have a bucket each
+    private static final int MAGNITUDES = 64 - SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAGNITUDES + 2) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    /**
+     * Records the time passed since start, a System.nanoTime() reading.
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Consistent enough for reporting: buckets are read one by one while recording goes on.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] buckets = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = counts.get(i);
+            total += buckets[i];
+        }
+        long maximum = max.get();
+        return new HistogramSnapshot(total, total == 0 ? 0 : sum.sum() / total,
+                quantile(buckets, total, maximum, 0.5),
+                quantile(buckets, total, maximum, 0.99),
+                quantile(buckets, total, maximum, 0.999),
+                maximum);
+    }
+
+    private static long quantile(long[] buckets, long total, long maximum, double quantile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(maximum, upperBound(i));
+        }
+        return maximum;
+    }
+
+    private static int index(long value) {
+        int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return magnitude * SUB_BUCKETS + (int) (value >>> magnitude);
+    }
+
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int magnitude = index / SUB_BUCKETS - 1;
+        long sub = index - (long) magnitude * SUB_BUCKETS;
+        return ((sub + 1) << magnitude) - 1;
+    }
+
+    public record HistogramSnapshot(long count, long mean, long p50, long p99, long p999, long max) {
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%dus p50=%dus p99=%dus p999=%dus max=%dus", count,
+                    micros(mean), micros(p50), micros(p99), micros(p999), micros(max));
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
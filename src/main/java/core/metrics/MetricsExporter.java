@@ -0,0 +1,10 @@
+package core.metrics;
+
+/*
+Receives collected metrics, for example to push them to a monitoring system.
+Called from the thread that exports, it should not block for long.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+    void export(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,102 @@
+package core.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Read-only JMX view of a registry. Every counter and gauge is a long attribute of its name,
+a histogram shows up as name.count, name.mean, name.p50, name.p99, name.p999 and name.max in nanoseconds.
+ */
+class MetricsMBean implements DynamicMBean {
+    private static final String[] HISTOGRAM_FIELDS = {"count", "mean", "p50", "p99", "p999", "max"};
+
+    private final MetricsRegistry registry;
+
+    MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = read(registry.snapshot(), attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        var snapshot = registry.snapshot();
+        var list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = read(snapshot, attribute);
+            if (value != null)
+                list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        var snapshot = registry.snapshot();
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : snapshot.values().keySet()) {
+            attributes.add(attribute(name));
+        }
+        for (String name : snapshot.histograms().keySet()) {
+            for (String field : HISTOGRAM_FIELDS) {
+                attributes.add(attribute(name + "." + field));
+            }
+        }
+        return new MBeanInfo(MetricsRegistry.class.getName(), "SerferDB storage metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name) {
+        return new MBeanAttributeInfo(name, "long", name, true, false, false);
+    }
+
+    private static Long read(MetricsSnapshot snapshot, String attribute) {
+        Long value = snapshot.values().get(attribute);
+        if (value != null)
+            return value;
+
+        int split = attribute.lastIndexOf('.');
+        if (split < 0)
+            return null;
+        var histogram = snapshot.histogram(attribute.substring(0, split));
+        if (histogram == null)
+            return null;
+        return switch (attribute.substring(split + 1)) {
+            case "count" -> histogram.count();
+            case "mean" -> histogram.mean();
+            case "p50" -> histogram.p50();
+            case "p99" -> histogram.p99();
+            case "p999" -> histogram.p999();
+            case "max" -> histogram.max();
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package core.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/*
+Named metrics of one storage. Components keep the counters and histograms they update
+and register them once, reading them back happens only when metrics are collected.
+Names are dot separated, the first part names the component: storage, btree, pages, cache, wal.
+ */
+public class MetricsRegistry {
+    public static final String JMX_DOMAIN = "serferdb";
+
+    private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+    private ObjectName mbeanName; // null while not registered
+
+    /**
+     * Counter of the name, created on first use.
+     */
+    public Counter counter(String name) {
+        return metric(name, Counter.class, Counter::new);
+    }
+
+    /**
+     * Histogram of the name, created on first use.
+     */
+    public Histogram histogram(String name) {
+        return metric(name, Histogram.class, Histogram::new);
+    }
+
+    public void register(String name, Counter counter) {
+        put(name, counter);
+    }
+
+    public void register(String name, Histogram histogram) {
+        put(name, histogram);
+    }
+
+    public void register(String name, Gauge gauge) {
+        put(name, gauge);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        Map<String, Histogram.HistogramSnapshot> histograms = new TreeMap<>();
+        metrics.forEach((name, metric) -> {
+            switch (metric) {
+                case Counter counter -> values.put(name, counter.get());
+                case Gauge gauge -> values.put(name, gauge.get());
+                case Histogram histogram -> histograms.put(name, histogram.snapshot());
+                default -> throw new IllegalStateException("unknown metric " + name);
+            }
+        });
+        return new MetricsSnapshot(values, histograms);
+    }
+
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public void removeExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    /**
+     * Collects the metrics once and passes them to every exporter.
+     */
+    public void export() {
+        if (exporters.isEmpty())
+            return;
+        var snapshot = snapshot();
+        for (var exporter : exporters) {
+            exporter.export(snapshot);
+        }
+    }
+
+    /**
+     * Exposes the metrics on the platform MBean server as serferdb:type=Storage,name=&lt;name&gt;.
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        if (mbeanName != null) throw new IllegalStateException("metrics are registered as " + mbeanName);
+        try {
+            var objectName = ObjectName.getInstance(JMX_DOMAIN + ":type=Storage,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), objectName);
+            mbeanName = objectName;
+            return objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("metrics named " + name + " are registered already", e);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("bad metrics name " + name, e);
+        } catch (JMException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (InstanceNotFoundException e) {
+            // unregistered from outside, nothing left to do
+        } catch (JMException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        mbeanName = null;
+    }
+
+    private <T> T metric(String name, Class<T> type, Supplier<T> create) {
+        Object metric = metrics.computeIfAbsent(name, n -> create.get());
+        if (!type.isInstance(metric)) throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+        return type.cast(metric);
+    }
+
+    private void put(String name, Object metric) {
+        if (metrics.putIfAbsent(name, metric) != null) throw new IllegalArgumentException("metric " + name + " is registered already");
+    }
+}
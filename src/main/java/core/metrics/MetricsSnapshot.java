@@ -0,0 +1,26 @@
+package core.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Values of every metric at one moment, counters and gauges by name and histograms by name, both sorted by name.
+ */
+public record MetricsSnapshot(Map<String, Long> values, Map<String, Histogram.HistogramSnapshot> histograms) {
+    public MetricsSnapshot {
+        values = Collections.unmodifiableMap(new TreeMap<>(values));
+        histograms = Collections.unmodifiableMap(new TreeMap<>(histograms));
+    }
+
+    /**
+     * Counter or gauge value, 0 for an unknown name.
+     */
+    public long value(String name) {
+        return values.getOrDefault(name, 0L);
+    }
+
+    public Histogram.HistogramSnapshot histogram(String name) {
+        return histograms.get(name);
+    }
+}
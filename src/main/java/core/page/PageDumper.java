@@ -1,15 +1,53 @@
 package core.page;
 
+import core.metrics.MetricsRegistry;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 
 public interface PageDumper {
     public ByteBuffer get(int idx) throws IOException;
     public int set(ByteBuffer bytes) throws IOException;
     public void delete(int idx) throws IOException;
 
+    /**
+     * Overwrites part of a live page in place, bytes from the buffer start up to its limit go to the offset in the page.
+     * Only for small fields that are not covered by copy-on-write, like the leaf chain.
+     */
+    public void update(int idx, int offset, ByteBuffer bytes) throws IOException;
+
+    /**
+     * Size of every page, fixed for the life of the storage.
+     */
+    public default int pageSize() {
+        return PagingConstants.DEFAULT_PAGE_SIZE;
+    }
+
     public void setRoot(int idx) throws IOException;
     public int getRoot() throws IOException;
+    public void checkpoint() throws IOException;
+
+    /**
+     * True when the previous session ended without close and the free pages are unknown.
+     * The owner of the page structure then passes every page it still references to recover.
+     */
+    public boolean needsRecovery();
+
+    /**
+     * Freed pages that are reused only after the next checkpoint.
+     */
+    public default int pagesAwaitingCheckpoint() {
+        return 0;
+    }
+
+    public void recover(BitSet usedPages) throws IOException;
+
     public void close() throws IOException;
     public void free() throws IOException;
+
+    /**
+     * Adds the io counters of the dumper to the registry, a dumper without any adds nothing.
+     */
+    public default void registerMetrics(MetricsRegistry metrics) {}
 }
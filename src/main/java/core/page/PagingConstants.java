@@ -2,8 +2,19 @@ package core.page;
 
 public class PagingConstants {
 
-    public static final int PAGE_SIZE = 1024 * 4;
+    public static final int DEFAULT_PAGE_SIZE = 1024 * 4;
+    public static final int MIN_PAGE_SIZE = DEFAULT_PAGE_SIZE;
+    public static final int MAX_PAGE_SIZE = 1024 * 64;
     public static final int UNDEFINED_REF = -1;
 
     private PagingConstants() {}
+
+    /**
+     * Page size is chosen when a file is created, a power of two from MIN_PAGE_SIZE to MAX_PAGE_SIZE.
+     */
+    public static int checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("page size must be a power of two from 4 KiB to 64 KiB");
+        return pageSize;
+    }
 }
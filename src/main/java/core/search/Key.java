@@ -26,6 +26,20 @@ public record Key(byte[] key) implements Comparable<Key> {
                 .array());
     }
 
+    /**
+     * Bytes every key made by from(prefix + suffix) starts with.
+     */
+    public static Key prefix(String prefix) {
+        return new Key(prefix.getBytes(Charset.defaultCharset()));
+    }
+
+    /**
+     * Inverse of from.
+     */
+    public String asString() {
+        return new String(key, 0, key.length - 1, Charset.defaultCharset());
+    }
+
     @Override
     public byte[] key() {
         return this.key;
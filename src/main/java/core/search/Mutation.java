@@ -0,0 +1,19 @@
+package core.search;
+
+/*
+Single change of a batch, a null value deletes the key.
+ */
+public record Mutation(Key key, Value value) {
+    public static Mutation put(Key key, Value value) {
+        if (value == null) throw new IllegalArgumentException("value cannot be null");
+        return new Mutation(key, value);
+    }
+
+    public static Mutation delete(Key key) {
+        return new Mutation(key, null);
+    }
+
+    public boolean isDelete() {
+        return value == null;
+    }
+}
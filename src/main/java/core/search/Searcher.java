@@ -1,7 +1,54 @@
 package core.search;
 
+import core.metrics.MetricsRegistry;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 public interface Searcher {
     public boolean delete(Key key);
     public void insert(Key key, Value value);
     public Value search(Key key);
+
+    /**
+     * Value of the key as a stream, null if the key is absent. A value kept in overflow pages is read
+     * a page at a time as the stream is consumed, its pages are kept until the stream is closed.
+     */
+    public InputStream searchStream(Key key);
+
+    /**
+     * Entries in key order, from inclusive and to exclusive, null leaves a side unbounded.
+     * Entries are read lazily and the iterator never fails on concurrent changes:
+     * it sees every change made before it started and may see later ones for keys it did not reach yet.
+     */
+    public Iterator<Map.Entry<Key, Value>> scan(Key from, Key to);
+    public Iterator<Map.Entry<Key, Value>> scanPrefix(Key prefix);
+
+    /**
+     * Applies the mutations as one change, later mutations of the same key win.
+     */
+    public void apply(List<Mutation> batch);
+
+    /**
+     * Fills an empty searcher from entries in strictly ascending key order,
+     * pages are filled up to the fill factor of their size.
+     */
+    public void bulkLoad(Iterator<Map.Entry<Key, Value>> sorted, double fillFactor);
+
+    /**
+     * Read-only view of the current state, pages it needs are kept until it is closed.
+     */
+    public Snapshot snapshot();
+
+    /**
+     * Hands freed pages back to the storage once no reader can reach them, called when readers are done.
+     */
+    public void reclaim();
+
+    /**
+     * Adds the structure statistics of the searcher to the registry.
+     */
+    public default void registerMetrics(MetricsRegistry metrics) {}
 }
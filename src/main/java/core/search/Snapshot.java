@@ -0,0 +1,27 @@
+package core.search;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+Read-only view of the searcher as of the moment it was taken, later changes are not visible.
+Pages the view reads are kept until it is closed, so it must not be left open.
+ */
+public interface Snapshot extends AutoCloseable {
+    public Value search(Key key);
+
+    /**
+     * Same as Searcher.searchStream, the stream fails once the snapshot is closed.
+     */
+    public InputStream searchStream(Key key);
+
+    /**
+     * Same bounds as Searcher.scan, the iterator fails once the snapshot is closed.
+     */
+    public Iterator<Map.Entry<Key, Value>> scan(Key from, Key to);
+    public Iterator<Map.Entry<Key, Value>> scanPrefix(Key prefix);
+
+    @Override
+    public void close();
+}
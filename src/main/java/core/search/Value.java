@@ -2,11 +2,15 @@ package core.search;
 
 import java.util.Arrays;
 
+/*
+Values up to MAX_VALUE_SIZE are kept in the leaves, longer ones up to MAX_LARGE_VALUE_SIZE in overflow pages.
+ */
 public record Value(byte[] value) {
     public static final int MAX_VALUE_SIZE = 512;
+    public static final int MAX_LARGE_VALUE_SIZE = 64 * 1024 * 1024;
 
     public Value(byte[] value) {
-        if (value.length > MAX_VALUE_SIZE)
+        if (value.length > MAX_LARGE_VALUE_SIZE)
             throw new IllegalArgumentException("value overflow");
         this.value = Arrays.copyOf(value, value.length);
     }
@@ -30,4 +34,4 @@ public record Value(byte[] value) {
     public String toString() {
         return Arrays.toString(this.value);
     }
-}
\ No newline at end of file
+}
@@ -1,144 +1,382 @@
 package core.search.btree;
 
+import core.compress.Compression;
+import core.compress.Lz4;
 import core.exception.StorageAccessException;
+import core.memory.cache.LruPageCache;
+import core.memory.cache.PageCache;
+import core.metrics.Counter;
+import core.metrics.MetricsRegistry;
 import core.page.PageDumper;
-import core.page.PagingConstants;
 import core.search.Key;
+import core.search.Mutation;
 import core.search.Searcher;
+import core.search.Snapshot;
 import core.search.Value;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static core.page.PagingConstants.UNDEFINED_REF;
 
-public class BTree implements Searcher {
-    private int root;
+/*
+Copy-on-write B-tree. Changes write new pages and publish a new root at the end, so any number
+of readers run lock free next to a single writer. The one exception is the next leaf ref: linkLeaf
+patches it in live leaves so the chain reaches the new pages. Only a scan follows that ref, and it
+takes it only if the ReadEpochs stamp did not move while it read the leaf, else it seeks from the root.
+Writes must not run concurrently with each other, callers serialize them.
+Freed pages go back to the dumper only once no reader can still reach them, see ReadEpochs.
+Values longer than MAX_VALUE_SIZE go to overflow pages, see OverflowPages.
+With compression on, values are compressed when that lets them fit a leaf. Value flags in the leaf
+tell how each value is read back, so values written with any compression setting stay readable.
+ */
+public final class BTree implements Searcher {
+    public static final int DEFAULT_NODE_CACHE_SIZE = 128;
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+    private static final int REBUILD_CHUNK_SIZE = 1024;
+    private static final int MAX_COMPRESS_INPUT = 255 * Value.MAX_VALUE_SIZE; // lz4 shrinks at most about 255 times
+
+    /*
+    Position of a child on the path being rewritten: index in its in-memory parent, and the parent's own position.
+     */
+    private record LeftOf(Node parent, int index, LeftOf up) {}
+
+    /*
+    Bytes a leaf keeps for a value, with the value flags telling how to read them back.
+     */
+    record StoredValue(Value value, int flags) {}
+
+    private volatile int root;
     private final PageDumper dumper;
+    private final int pageSize;
+    private final ReadEpochs epochs = new ReadEpochs();
+    private final PageCache<Node> nodeCache; // decoded inner nodes by page index, null if disabled
+    private final OverflowPages overflow;
+    private final Compression compression;
+    private final Counter splits = new Counter(); // nodes added by splits
+    private final Counter merges = new Counter();
+    private final Counter released = new Counter();
+    private final Counter cacheHits = new Counter();
+    private final Counter cacheMisses = new Counter();
+    private final Counter overflowPages = new Counter(); // overflow pages written
+    private final Counter compressedValues = new Counter();
+    private final Counter uncompressedValues = new Counter(); // tried, but not shorter or still too long for a leaf
+    private final Counter rawBytes = new Counter();           // of the compressed values
+    private final Counter compressedBytes = new Counter();
 
     public BTree(PageDumper dumper) {
+        this(dumper, DEFAULT_NODE_CACHE_SIZE);
+    }
+
+    public BTree(PageDumper dumper, int nodeCacheSize) {
+        this(dumper, nodeCacheSize, Compression.NONE);
+    }
+
+    public BTree(PageDumper dumper, int nodeCacheSize, Compression compression) {
+        if (nodeCacheSize < 0) throw new IllegalArgumentException("node cache size cannot be negative");
+        if (compression == null) throw new IllegalArgumentException("compression cannot be null");
         this.dumper = dumper;
+        this.pageSize = dumper.pageSize();
+        this.nodeCache = nodeCacheSize > 0 ? new LruPageCache<>(nodeCacheSize) : null;
+        this.overflow = new OverflowPages(dumper);
+        this.compression = compression;
         try {
             root = this.dumper.getRoot();
+            if (this.dumper.needsRecovery()) {
+                var used = new BitSet();
+                var leaves = new ArrayList<Integer>();
+                collectPages(used, leaves);
+                relink(leaves);
+                this.dumper.recover(used);
+            }
         } catch (IOException e) {
             throw new StorageAccessException(e.getMessage(), e.getCause());
         }
+        if (hasUnlinkedLeaves())
+            rebuildUnlinked();
     }
 
-    @Override
-    public Value search(Key key) {
+    //region Open
+    /*
+    Every page reachable from the root, leaves are collected in key order. Leaves are all on the same level,
+    so the leftmost path gives the height. Leaves are read only for the overflow pages of their values.
+     */
+    private void collectPages(BitSet used, List<Integer> leaves) {
         if (root == UNDEFINED_REF)
-            return null;
+            return;
+
+        int height = 1;
+        for (Node node = decodePage(root); !node.isLeaf(); node = decodePage(node.getChild(0))) {
+            height++;
+        }
+        collectPages(root, height, used, leaves);
+    }
+
+    private void collectPages(int ref, int height, BitSet used, List<Integer> leaves) {
+        used.set(ref);
+        if (height == 1) {
+            leaves.add(ref);
+            Node leaf = decodePage(ref);
+            for (int i = 0; i < leaf.size(); i++) {
+                if (leaf.isOverflow(i))
+                    overflow.pages(leaf.getValue(i)).forEach(used::set);
+            }
+            return;
+        }
+        Node node = decodePage(ref);
+        for (int i = 0; i < node.size(); i++) {
+            collectPages(node.getChild(i), height - 1, used, leaves);
+        }
+    }
+
+    /*
+    Next leaf refs are patched in place, after a crash a checkpointed leaf may point at a page of a later change.
+     */
+    private void relink(List<Integer> leaves) {
+        for (int i = 0; i < leaves.size(); i++) {
+            int expected = i + 1 < leaves.size() ? leaves.get(i + 1) : UNDEFINED_REF;
+            int actual = decodePage(leaves.get(i)).getNextLeaf();
+            if (actual != Node.UNLINKED_REF && actual != expected)
+                linkLeaf(leaves.get(i), expected);
+        }
+    }
+
+    private boolean hasUnlinkedLeaves() {
+        if (root == UNDEFINED_REF)
+            return false;
+
+        Node node = decodePage(root);
+        while (!node.isLeaf()) {
+            node = decodePage(node.getChild(0));
+        }
+        return node.getNextLeaf() == Node.UNLINKED_REF;
+    }
+
+    /*
+    Files written before leaves were linked are copied into a new tree once,
+    the old pages are freed after every entry was moved.
+     */
+    private void rebuildUnlinked() {
+        var oldPages = new BitSet();
+        collectPages(oldPages, new ArrayList<>());
+
+        var entries = new BTreeIterator(this, root, null, null);
+        root = UNDEFINED_REF;
+        List<Mutation> chunk = new ArrayList<>();
+        while (entries.hasNext()) {
+            var entry = entries.next();
+            chunk.add(Mutation.put(entry.getKey(), entry.getValue()));
+            if (chunk.size() == REBUILD_CHUNK_SIZE) {
+                apply(chunk);
+                chunk.clear();
+            }
+        }
+        apply(chunk);
+
+        epochs.beginWrite();
+        oldPages.stream().forEach(this::freePage);
+        publishRoot();
+    }
+    //endregion
 
+    @Override
+    public Value search(Key key) {
+        var epoch = epochs.pin();
         try {
-            return search(key, Node.decode(dumper.get(root)));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+            int ref = root;
+            if (ref == UNDEFINED_REF)
+                return null;
+
+            return search(key, readNode(ref));
+        } finally {
+            epochs.unpin(epoch);
         }
     }
 
     private Value search(Key key, Node curNode) {
         if (curNode.isLeaf()) {
-            return curNode.getKeyValue(key);
+            int idx = curNode.binarySearch(key);
+            return idx < 0 ? null : leafValue(curNode, idx);
         }
 
         int ref = curNode.getChildRef(key);
-        Node nextNode = null;
+        return search(key, readNode(ref));
+    }
+
+    /**
+     * The epoch pinned to find the leaf stays pinned until an overflow value's stream is closed.
+     */
+    @Override
+    public InputStream searchStream(Key key) {
+        var epoch = epochs.pin();
+        boolean handedOver = false;
         try {
-            nextNode = Node.decode(dumper.get(ref));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+            int ref = root;
+            if (ref == UNDEFINED_REF)
+                return null;
+
+            Node node = readNode(ref);
+            while (!node.isLeaf()) {
+                node = readNode(node.getChildRef(key));
+            }
+            int idx = node.binarySearch(key);
+            if (idx < 0)
+                return null;
+            if (!node.isOverflow(idx))
+                return new ByteArrayInputStream(leafValue(node, idx).value());
+
+            handedOver = true;
+            return openOverflow(node.getValue(idx), () -> epochs.unpin(epoch));
+        } finally {
+            if (!handedOver)
+                epochs.unpin(epoch);
         }
-        return search(key, nextNode);
+    }
+
+    /*
+    Overflow value read a page at a time, its pages must be kept by a pinned epoch until the stream is closed.
+     */
+    InputStream openOverflow(Value ref, Runnable onClose) {
+        return overflow.open(ref, onClose);
+    }
+
+    /*
+    Value at the index of a leaf, an overflow one is read whole. Its pages must be kept by a pinned epoch.
+     */
+    Value leafValue(Node leaf, int idx) {
+        Value value = leaf.getValue(idx);
+        if (leaf.isOverflow(idx))
+            value = overflow.read(value);
+        if (leaf.isCompressed(idx))
+            value = new Value(Lz4.decompress(value.value(), MAX_COMPRESS_INPUT));
+        return value;
     }
 
     @Override
-    public void insert(Key key, Value value) {
-        if (root == UNDEFINED_REF) {
-            Node node = new Node(true);
-            node.leafUpdate(Key.NullKey(), Value.NullValue()); // Manually inserting minimal possible key
-            node.leafUpdate(key, value);
-            try {
-                root = dumper.set(Node.encode(node));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
-            try {
-                dumper.setRoot(root);
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
+    public Iterator<Map.Entry<Key, Value>> scan(Key from, Key to) {
+        return new BTreeIterator(this, from, to);
+    }
+
+    @Override
+    public Iterator<Map.Entry<Key, Value>> scanPrefix(Key prefix) {
+        return scan(prefix, prefixEnd(prefix));
+    }
+
+    /*
+    Smallest key above every key starting with the prefix, null if there is none.
+     */
+    static Key prefixEnd(Key prefix) {
+        byte[] bytes = prefix.key();
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(bytes, i + 1);
+                end[i]++;
+                return new Key(end);
             }
-            return;
-        }
-        Node curRoot = null;
-        try {
-            curRoot = Node.decode(dumper.get(this.root));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
         }
+        return null;
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new BTreeSnapshot(this);
+    }
+
+    int getRoot() {
+        return root;
+    }
+
+    ReadEpochs getEpochs() {
+        return epochs;
+    }
+
+    int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public void reclaim() {
+        release(epochs.reclaimable());
+    }
+
+    @Override
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.register("btree.splits", splits);
+        metrics.register("btree.merges", merges);
+        metrics.register("btree.pages.released", released);
+        metrics.register("btree.nodecache.hits", cacheHits);
+        metrics.register("btree.nodecache.misses", cacheMisses);
+        metrics.register("btree.overflow.pages", overflowPages);
+        metrics.register("btree.compression.values", compressedValues);
+        metrics.register("btree.compression.skipped", uncompressedValues);
+        metrics.register("btree.compression.bytes.raw", rawBytes);
+        metrics.register("btree.compression.bytes.stored", compressedBytes);
+        metrics.register("btree.depth", this::depth);
+        metrics.register("btree.page.size", this::pageSize);
+    }
+
+    /**
+     * Levels from the root to the leaves, 0 for an empty tree.
+     */
+    public int depth() {
+        var epoch = epochs.pin();
         try {
-            dumper.delete(this.root);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
-        Node node = insert(key, value, curRoot);
-        List<Node> split = Node.split(node);
-        List<Integer> splitRefs;
-        splitRefs = split.stream().map(s -> {
-            try {
-                return dumper.set(Node.encode(s));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
-        }).toList();
-
-        if (split.size() > 1) {
-            Node newRoot = new Node(false);
-            newRoot.insertSplitChildren(split, splitRefs);
-            try {
-                root = dumper.set(Node.encode(newRoot));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
+            int ref = root;
+            if (ref == UNDEFINED_REF)
+                return 0;
+            int depth = 1;
+            for (Node node = readNode(ref); !node.isLeaf(); node = readNode(node.getChild(0))) {
+                depth++;
             }
-        } else {
-            root = splitRefs.getFirst();
+            return depth;
+        } finally {
+            epochs.unpin(epoch);
         }
-        try {
-            dumper.setRoot(root);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+    }
+
+    @Override
+    public void insert(Key key, Value value) {
+        epochs.beginWrite();
+        if (root == UNDEFINED_REF) {
+            Node node = new Node(true, pageSize);
+            node.leafUpdate(Key.NullKey(), Value.NullValue()); // Manually inserting minimal possible key
+            put(node, key, value);
+            root = writeNode(node);
+            publishRoot();
+            return;
         }
+        Node curRoot = takeNode(this.root);
+        freePage(this.root);
+        Node node = insert(key, value, curRoot, null);
+        root = writeRoot(node);
+        publishRoot();
     }
 
-    private Node insert(Key key, Value value, Node curNode) {
+    private Node insert(Key key, Value value, Node curNode, LeftOf left) {
         if (curNode.isLeaf()) {
-            curNode.leafUpdate(key, value);
+            put(curNode, key, value);
             return curNode;
         }
-        int nodeRef = curNode.getChildRef(key);
-        Node node = null;
-        try {
-            node = Node.decode(dumper.get(nodeRef));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
-        try {
-            dumper.delete(nodeRef);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
-        node = insert(key, value, node);
+        int idx = curNode.getChildIndex(key);
+        int nodeRef = curNode.getChild(idx);
+        Node node = takeNode(nodeRef);
+        freePage(nodeRef);
+        var childLeft = new LeftOf(curNode, idx, left);
+        node = insert(key, value, node, childLeft);
 
-        var split = Node.split(node);
-        var splitRefs = split.stream().map(s -> {
-            try {
-                return dumper.set(Node.encode(s));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
-        }).toList();
-        curNode.insertSplitChildren(split, splitRefs);
+        var split = split(node);
+        var splitRefs = writeParts(split, childLeft);
+        replaceParts(curNode, idx, split, splitRefs);
         return curNode;
     }
 
@@ -146,141 +384,455 @@ public class BTree implements Searcher {
     public boolean delete(Key key) {
         if (root == -1) return false;
 
-        Node node = null;
-        try {
-            node = Node.decode(dumper.get(root));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+        epochs.beginWrite();
+        Node node = takeNode(root);
+        node = delete(key, node, null);
+        if (node == null) {
+            epochs.endWrite();
+            return false;
         }
-        node = delete(key, node);
-        if (node == null) return false;
 
-        try {
-            dumper.delete(root);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
+        freePage(root);
 
-        if (node.getKeys().size() < 2) {
+        if (node.size() < 2) {
             if (node.isLeaf())
                 root = UNDEFINED_REF;
             else
-                root = node.getChildrenRefs().getFirst();
+                root = node.getChild(0);
         } else {
-            try {
-                root = dumper.set(Node.encode(node));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
-        }
-        try {
-            dumper.setRoot(root);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+            root = writeRoot(node);
         }
+        publishRoot();
         return true;
     }
 
     public Node delete(Key key, Node node) {
+        return delete(key, node, null);
+    }
+
+    private Node delete(Key key, Node node, LeftOf left) {
 
         if (node.isLeaf()) {
-            if (!node.leafDelete(key))
+            if (!remove(node, key))
                 return null;
             return node;
         }
-        int ref = node.getChildRef(key);
-        Node child = null;
-        try {
-            child = Node.decode(dumper.get(ref));
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
-        child = delete(key, child);
+        int idx = node.getChildIndex(key);
+        int ref = node.getChild(idx);
+        Node child = takeNode(ref);
+        child = delete(key, child, new LeftOf(node, idx, left));
 
         if (child == null) return null;
 
-        try {
-            dumper.delete(ref);
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
-        }
-        var entry = shouldMerge(node, child, key);
+        freePage(ref);
+        var entry = shouldMerge(node, child, idx);
         int mergeDir = entry.getKey();
         Node sibling = entry.getValue();
 
         if (mergeDir < 0) {
             assert sibling != null;
-            node.nodeDelete(key);
-            Node merged = node.mergeTwoChildren(sibling, child);
-            try {
-                node.nodeUpdate(merged.getKeys().getFirst(), dumper.set(Node.encode(merged)), merged.getKeys().getFirst());
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
+            int mergedRef = writeParts(List.of(node.mergeTwoChildren(sibling, child)), new LeftOf(node, idx - 1, left)).getFirst();
+            node.removeChild(idx);
+            node.setChild(idx - 1, mergedRef);
             return node;
         } else if (mergeDir > 0) {
             assert sibling != null;
-            node.nodeDelete(sibling.getKeys().getFirst());
             Node merged = node.mergeTwoChildren(child, sibling);
-            try {
-                node.nodeUpdate(key, dumper.set(Node.encode(merged)), merged.getKeys().getFirst());
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
-            }
+            node.removeChild(idx + 1);
+            node.setChild(idx, writeParts(List.of(merged), new LeftOf(node, idx, left)).getFirst());
             return node;
         }
 
-        if (child.getKeys().isEmpty()) {
+        if (child.isEmpty()) {
+            if (child.isLeaf())
+                linkLeaf(leafLeftOf(new LeftOf(node, idx, left)), child.getNextLeaf());
             return node;
         }
+        // the child may have grown: a merge below can shorten the key prefix of its pages
+        var parts = split(child);
+        var refs = writeParts(parts, new LeftOf(node, idx, left));
+        replaceParts(node, idx, parts, refs);
+        return node;
+    }
+
+    /**
+     * Builds the tree bottom-up from entries in strictly ascending key order, the tree must be empty.
+     * Pages are packed to the fill factor and written once, the root is published at the end.
+     * If the load fails, the tree stays empty and the written pages are freed.
+     */
+    @Override
+    public void bulkLoad(Iterator<Map.Entry<Key, Value>> sorted, double fillFactor) {
+        if (root != UNDEFINED_REF) throw new IllegalStateException("bulk load needs an empty tree");
+
+        var loader = new BulkLoader(this, fillFactor);
+        epochs.beginWrite();
         try {
-            node.nodeUpdate(key, dumper.set(Node.encode(child)), child.getKeys().getFirst()); //здесь
-        } catch (IOException e) {
-            throw new StorageAccessException(e.getMessage(), e.getCause());
+            loader.add(Key.NullKey(), Value.NullValue());
+            while (sorted.hasNext()) {
+                var entry = sorted.next();
+                loader.add(entry.getKey(), entry.getValue());
+            }
+            root = loader.finish();
+        } catch (RuntimeException e) {
+            loader.written().forEach(this::freePage);
+            publishRoot();
+            throw e;
+        }
+        publishRoot();
+    }
+
+    /*
+    Batch: mutations are sorted and pushed down the tree together, so every node
+    on a path shared by several of them is read, freed and rewritten once.
+    Children are fixed up on the way back: emptied ones are dropped, small ones merged
+    into a neighbour and oversized ones split into as many pages as needed.
+     */
+    @Override
+    public void apply(List<Mutation> batch) {
+        if (batch.isEmpty()) return;
+
+        epochs.beginWrite();
+        var sorted = new TreeMap<Key, Mutation>();
+        for (var mutation : batch) {
+            sorted.put(mutation.key(), mutation);
+        }
+
+        Node node;
+        if (root == UNDEFINED_REF) {
+            node = new Node(true, pageSize);
+            node.leafUpdate(Key.NullKey(), Value.NullValue());
+        } else {
+            node = takeNode(root);
+            freePage(root);
+        }
+        node = apply(node, new ArrayList<>(sorted.values()), null);
+
+        while (node.size() < 2) {
+            if (node.isLeaf()) {
+                root = UNDEFINED_REF;
+                publishRoot();
+                return;
+            }
+            int onlyChild = node.getChild(0);
+            node = takeNode(onlyChild);
+            freePage(onlyChild);
+        }
+
+        root = writeRoot(node);
+        publishRoot();
+    }
+
+    private Node apply(Node node, List<Mutation> batch, LeftOf left) {
+        if (node.isLeaf()) {
+            for (var mutation : batch) {
+                if (mutation.isDelete())
+                    remove(node, mutation.key());
+                else
+                    put(node, mutation.key(), mutation.value());
+            }
+            return node;
+        }
+
+        int from = 0;
+        while (from < batch.size()) {
+            Key first = batch.get(from).key();
+            int ref = node.getChildRef(first);
+            int to = from + 1;
+            while (to < batch.size() && node.getChildRef(batch.get(to).key()) == ref) {
+                to++;
+            }
+
+            int idx = node.getChildIndex(first);
+            Node child = takeNode(ref);
+            freePage(ref);
+            child = apply(child, batch.subList(from, to), new LeftOf(node, idx, left));
+            replaceChild(node, idx, child, left);
+            from = to;
         }
         return node;
     }
 
-    private AbstractMap.SimpleEntry<Integer, Node> shouldMerge(Node parent, Node child, Key key) {
+    private void replaceChild(Node parent, int idx, Node child, LeftOf left) {
+        if (child.isEmpty()) {
+            parent.removeChild(idx);
+            if (child.isLeaf())
+                linkLeaf(leafLeftOf(new LeftOf(parent, idx, left)), child.getNextLeaf());
+            return;
+        }
+
+        if (child.isMergingSize()) {
+            Node sibling = takeForMerge(parent, idx - 1, child, idx);
+            if (sibling != null) {
+                child = parent.mergeTwoChildren(sibling, child);
+                parent.removeChild(idx--);
+            } else if ((sibling = takeForMerge(parent, idx + 1, child, idx)) != null) {
+                child = parent.mergeTwoChildren(child, sibling);
+                parent.removeChild(idx + 1);
+            }
+        }
+
+        var parts = split(child);
+        var refs = writeParts(parts, new LeftOf(parent, idx, left));
+        replaceParts(parent, idx, parts, refs);
+    }
+
+    private AbstractMap.SimpleEntry<Integer, Node> shouldMerge(Node parent, Node child, int idx) {
         if (!child.isMergingSize()) {
             return new AbstractMap.SimpleEntry<>(0, null);
         }
 
-        int leftSibling = parent.getLeftSiblingRef(key);
-        int rightSibling = parent.getRightSiblingRef(key);
-        if (leftSibling != -1) {
-            Node sibling = null;
-            try {
-                sibling = Node.decode(dumper.get(leftSibling));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
+        Node sibling = takeForMerge(parent, idx - 1, child, idx);
+        if (sibling != null)
+            return new AbstractMap.SimpleEntry<>(-1, sibling);
+        sibling = takeForMerge(parent, idx + 1, child, idx);
+        if (sibling != null)
+            return new AbstractMap.SimpleEntry<>(1, sibling);
+
+        return new AbstractMap.SimpleEntry<>(0, null);
+    }
+
+    /*
+    Sibling of the child at the given index if the two fit a page once merged, its page is freed then.
+    The first key of the right one of two inner nodes is set to the key the parent routes to it by first:
+    keys below its own first key may have been added to its first child since it was made.
+     */
+    private Node takeForMerge(Node parent, int siblingIdx, Node child, int childIdx) {
+        if (siblingIdx < 0 || siblingIdx >= parent.size())
+            return null;
+
+        int ref = parent.getChild(siblingIdx);
+        Node sibling = takeNode(ref);
+        int rightIdx = Math.max(siblingIdx, childIdx);
+        Node right = siblingIdx > childIdx ? sibling : child;
+        if (!right.isLeaf() && !right.isEmpty())
+            right.setKey(0, parent.getKey(rightIdx));
+
+        if (Node.mergedSize(sibling, child) > pageSize)
+            return null;
+        freePage(ref);
+        merges.increment();
+        return sibling;
+    }
+
+    /*
+    Puts the parts in place of the child at the index. The first one keeps the key of the child,
+    the others are routed by the separators between them.
+     */
+    private static void replaceParts(Node parent, int idx, List<Node> parts, List<Integer> refs) {
+        parent.setChild(idx, refs.getFirst());
+        for (int i = 1; i < parts.size(); i++) {
+            parent.insertChild(idx + i, Node.separator(parts.get(i - 1), parts.get(i)), refs.get(i));
+        }
+    }
+
+    /*
+    Overflow pages of the value it replaces are freed like the pages of the path.
+     */
+    private void put(Node leaf, Key key, Value value) {
+        freeOverflow(leaf, key);
+        var stored = store(value, new ArrayList<>());
+        leaf.leafUpdate(key, stored.value(), stored.flags());
+    }
+
+    private boolean remove(Node leaf, Key key) {
+        freeOverflow(leaf, key);
+        return leaf.leafDelete(key);
+    }
+
+    private void freeOverflow(Node leaf, Key key) {
+        int idx = leaf.binarySearch(key);
+        if (idx >= 0 && leaf.isOverflow(idx))
+            overflow.pages(leaf.getValue(idx)).forEach(this::freePage);
+    }
+
+    /**
+     * What a leaf keeps for the value. It is compressed only if it gets shorter and then fits the leaf:
+     * a value left in overflow pages stays raw, so its stream reads it a page at a time.
+     * A value too long for the leaf is written to overflow pages, they are added to the list.
+     */
+    StoredValue store(Value value, List<Integer> written) {
+        byte[] bytes = value.value();
+        if (compression == Compression.LZ4 && bytes.length <= MAX_COMPRESS_INPUT) {
+            byte[] compressed = Lz4.compress(bytes);
+            if (compressed.length < bytes.length && compressed.length <= Value.MAX_VALUE_SIZE) {
+                compressedValues.increment();
+                rawBytes.add(bytes.length);
+                compressedBytes.add(compressed.length);
+                return new StoredValue(new Value(compressed), Node.COMPRESSED);
             }
-            if (sibling.nodeSize() + child.nodeSize() <= PagingConstants.PAGE_SIZE) {
-                try {
-                    dumper.delete(leftSibling);
-                } catch (IOException e) {
-                    throw new StorageAccessException(e.getMessage(), e.getCause());
+            uncompressedValues.increment();
+        }
+
+        if (bytes.length <= Value.MAX_VALUE_SIZE)
+            return new StoredValue(value, 0);
+        int before = written.size();
+        Value ref = overflow.write(value, written);
+        overflowPages.add(written.size() - before);
+        return new StoredValue(ref, Node.OVERFLOW);
+    }
+
+    //region Page access
+    /*
+    Read path: decoded inner nodes are shared through the node cache,
+    so the returned node must not be modified.
+     */
+    Node readNode(int ref) {
+        if (nodeCache != null) {
+            synchronized (nodeCache) {
+                Node cached = nodeCache.get(ref);
+                if (cached != null) {
+                    cacheHits.increment();
+                    return cached;
                 }
-                return new AbstractMap.SimpleEntry<>(-1, sibling);
             }
         }
-        if (rightSibling != -1) {
-            Node sibling = null;
-            try {
-                sibling = Node.decode(dumper.get(rightSibling));
-            } catch (IOException e) {
-                throw new StorageAccessException(e.getMessage(), e.getCause());
+
+        Node node = decodePage(ref);
+        if (nodeCache != null && !node.isLeaf()) {
+            cacheMisses.increment();
+            synchronized (nodeCache) {
+                nodeCache.put(ref, node);
+            }
+        }
+        return node;
+    }
+
+    /*
+    Write path: the node is about to be changed and rewritten to a new page.
+    Readers may still hold the cached instance, the caller gets a copy of it instead of a new decode.
+     */
+    private Node takeNode(int ref) {
+        if (nodeCache != null) {
+            synchronized (nodeCache) {
+                Node cached = nodeCache.get(ref);
+                if (cached != null)
+                    return cached.copy();
             }
-            if (sibling.nodeSize() + child.nodeSize() <= PagingConstants.PAGE_SIZE) {
-                try {
-                    dumper.delete(rightSibling);
-                } catch (IOException e) {
-                    throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+        return decodePage(ref);
+    }
+
+    private Node decodePage(int ref) {
+        try {
+            return Node.decode(dumper.get(ref), pageSize);
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+    }
+
+    int writeNode(Node node) {
+        int ref;
+        try {
+            ref = dumper.set(Node.encode(node));
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+        invalidate(ref);
+        return ref;
+    }
+
+    /*
+    Writes the new root, levels are added on top while it does not fit a page.
+     */
+    private int writeRoot(Node node) {
+        List<Node> level = split(node);
+        List<Integer> refs = writeParts(level, null);
+        while (level.size() > 1) {
+            Node parent = new Node(false, pageSize);
+            parent.insertChild(0, level.getFirst().getKey(0), refs.getFirst());
+            replaceParts(parent, 0, level, refs);
+            level = split(parent);
+            refs = level.stream().map(this::writeNode).toList();
+        }
+        return refs.getFirst();
+    }
+
+    /*
+    Writes the nodes replacing one child at the position the left context points at.
+    Leaf parts are written right to left so each can point at the next one,
+    the last keeps the chain of the replaced leaf and the leaf left of them is patched to the first.
+     */
+    private List<Integer> writeParts(List<Node> parts, LeftOf left) {
+        if (!parts.getFirst().isLeaf())
+            return parts.stream().map(this::writeNode).toList();
+
+        var refs = new Integer[parts.size()];
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            if (i + 1 < parts.size())
+                parts.get(i).setNextLeaf(refs[i + 1]);
+            refs[i] = writeNode(parts.get(i));
+        }
+        linkLeaf(leafLeftOf(left), refs[0]);
+        return List.of(refs);
+    }
+
+    void linkLeaf(int leaf, int next) {
+        if (leaf == UNDEFINED_REF)
+            return;
+        try {
+            dumper.update(leaf, Node.NEXT_LEAF_OFFSET, ByteBuffer.allocate(4).putInt(next).flip());
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+    }
+
+    /*
+    Rightmost leaf left of the subtree: under the previous child of the parent,
+    or for a leftmost child the leaf left of the parent. Parents are the in-memory nodes
+    of the path being rewritten, children left of the path in them are always current.
+     */
+    private int leafLeftOf(LeftOf left) {
+        int height = 0; // levels between the children of left.parent and the leaves
+        for (; left != null; left = left.up(), height++) {
+            if (left.index() > 0) {
+                int ref = left.parent().getChild(left.index() - 1);
+                for (int h = height; h > 0; h--) {
+                    Node node = readNode(ref);
+                    ref = node.getChild(node.size() - 1);
                 }
-                return new AbstractMap.SimpleEntry<>(1, sibling);
+                return ref;
             }
         }
+        return UNDEFINED_REF;
+    }
 
-        return new AbstractMap.SimpleEntry<>(0, null);
+    private List<Node> split(Node node) {
+        List<Node> parts = Node.split(node);
+        splits.add(parts.size() - 1);
+        return parts;
+    }
+
+    private void freePage(int ref) {
+        epochs.retire(ref);
+    }
+
+    private void release(List<Integer> refs) {
+        try {
+            for (int ref : refs) {
+                invalidate(ref);
+                dumper.delete(ref);
+            }
+            released.add(refs.size());
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+    }
+
+    private void publishRoot() {
+        try {
+            dumper.setRoot(root);
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+        release(epochs.publish());
+    }
+
+    private void invalidate(int ref) {
+        if (nodeCache == null)
+            return;
+        synchronized (nodeCache) {
+            nodeCache.invalidate(ref);
+        }
     }
+    //endregion
 }
@@ -0,0 +1,220 @@
+package core.search.btree;
+
+import core.search.Key;
+import core.search.Value;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+In-order walk over the entries of a tree, from inclusive, to exclusive.
+One descent finds the first leaf, only the current leaf is decoded.
+
+A live walk follows the leaf chain while the writer is idle and nothing changed since the current leaf was read.
+Otherwise it descends the current root again to the first key after the current leaf,
+so it never fails and sees later changes only for keys it did not reach yet.
+Every step pins the read epoch, so pages it reads are not handed back meanwhile.
+Overflow values are read only when their entry is reached. A live walk reads them from the current leaf
+only if nothing changed since it was read, otherwise it looks the key up again.
+A detached walk stays on one root: it keeps the inner nodes of the path on a stack and moves one child
+to the right on the deepest inner node that has one. The caller keeps the pages of that root alive.
+ */
+class BTreeIterator implements Iterator<Map.Entry<Key, Value>> {
+    private static final Key NULL_KEY = Key.NullKey();
+    private static final long NO_STAMP = -1;
+
+    private final BTree tree;
+    private final Key to;
+    private final boolean live;
+    private final Deque<Frame> path = new ArrayDeque<>();
+    private Node leaf;
+    private int position;
+    private long leafStamp = NO_STAMP; // writer stamp the current leaf chain ref is valid for
+    private Map.Entry<Key, Value> next;
+
+    private static class Frame {
+        final Node node;
+        int child;
+
+        Frame(Node node, int child) {
+            this.node = node;
+            this.child = child;
+        }
+    }
+
+    /**
+     * Live walk over whatever root is current at each step.
+     */
+    BTreeIterator(BTree tree, Key from, Key to) {
+        this.tree = tree;
+        this.to = to;
+        this.live = true;
+        var epochs = tree.getEpochs();
+        var epoch = epochs.pin();
+        try {
+            long stamp = epochs.stamp();
+            seek(tree.getRoot(), from, false);
+            leafStamp = validStamp(stamp);
+        } finally {
+            epochs.unpin(epoch);
+        }
+        advance();
+    }
+
+    /**
+     * Detached walk over the given root.
+     */
+    BTreeIterator(BTree tree, int root, Key from, Key to) {
+        this.tree = tree;
+        this.to = to;
+        this.live = false;
+        seek(root, from, false);
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<Key, Value> next() {
+        if (next == null) throw new NoSuchElementException();
+        var result = next;
+        advance();
+        return result;
+    }
+
+    private void advance() {
+        next = null;
+        while (leaf != null) {
+            if (position < leaf.size()) {
+                Key key = leaf.getKey(position);
+                if (to != null && key.compareTo(to) >= 0) {
+                    leaf = null;
+                    return;
+                }
+                if (key.equals(NULL_KEY)) {
+                    position++;
+                    continue; // sentinel, not a stored entry
+                }
+                Value value = value(key, position++);
+                if (value == null)
+                    continue; // removed since the leaf was read
+
+                next = new AbstractMap.SimpleImmutableEntry<>(key, value);
+                return;
+            }
+
+            if (live) {
+                moveRight();
+            } else {
+                leaf = nextLeaf();
+                position = 0;
+            }
+        }
+    }
+
+    private Value value(Key key, int idx) {
+        if (!leaf.isOverflow(idx) || !live)
+            return tree.leafValue(leaf, idx);
+
+        var epochs = tree.getEpochs();
+        var epoch = epochs.pin();
+        try {
+            long stamp = epochs.stamp();
+            if (stamp == leafStamp) {
+                Value value = tree.leafValue(leaf, idx);
+                if (epochs.stamp() == stamp)
+                    return value;
+            }
+        } finally {
+            epochs.unpin(epoch);
+        }
+        return tree.search(key); // the pages of the value may be handed back already
+    }
+
+    private void seek(int root, Key key, boolean after) {
+        if (root == UNDEFINED_REF) {
+            leaf = null;
+            return;
+        }
+
+        Node node = tree.readNode(root);
+        while (!node.isLeaf()) {
+            int child = key == null ? 0 : Math.max(0, floorIndex(node, key));
+            if (!live)
+                path.push(new Frame(node, child));
+            node = tree.readNode(node.getChild(child));
+        }
+        leaf = node;
+        position = 0;
+        if (key != null) {
+            int idx = leaf.binarySearch(key);
+            position = idx >= 0 ? (after ? idx + 1 : idx) : -idx - 1;
+        }
+    }
+
+    private void moveRight() {
+        Key last = leaf.getKey(leaf.size() - 1);
+        var epochs = tree.getEpochs();
+        var epoch = epochs.pin();
+        try {
+            long stamp = epochs.stamp();
+            if (stamp == leafStamp) {
+                int ref = leaf.getNextLeaf();
+                if (ref == UNDEFINED_REF) {
+                    leaf = null;
+                    return;
+                }
+                Node node = tree.readNode(ref);
+                if (epochs.stamp() == stamp) {
+                    leaf = node;
+                    position = 0;
+                    return;
+                }
+            }
+
+            seek(tree.getRoot(), last, true);
+            leafStamp = validStamp(stamp);
+        } finally {
+            epochs.unpin(epoch);
+        }
+    }
+
+    /*
+    Chain ref of the leaf just read can be followed later only if no change was being written while it was read.
+     */
+    private long validStamp(long stamp) {
+        if (ReadEpochs.isWriting(stamp) || tree.getEpochs().stamp() != stamp)
+            return NO_STAMP;
+        return stamp;
+    }
+
+    private Node nextLeaf() {
+        while (!path.isEmpty()) {
+            Frame top = path.peek();
+            if (++top.child < top.node.size()) {
+                Node node = tree.readNode(top.node.getChild(top.child));
+                while (!node.isLeaf()) {
+                    path.push(new Frame(node, 0));
+                    node = tree.readNode(node.getChild(0));
+                }
+                return node;
+            }
+            path.pop();
+        }
+        return null;
+    }
+
+    private static int floorIndex(Node node, Key key) {
+        int idx = node.binarySearch(key);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+}
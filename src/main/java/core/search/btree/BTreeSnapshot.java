@@ -0,0 +1,120 @@
+package core.search.btree;
+
+import core.search.Key;
+import core.search.Snapshot;
+import core.search.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+Holds a read epoch pin for its whole life, so no page reachable from its root is handed back.
+Scans are detached walks: chain refs of leaves shared with later roots are patched by the writer.
+ */
+class BTreeSnapshot implements Snapshot {
+    private final BTree tree;
+    private final ReadEpochs.Epoch epoch;
+    private final int root;
+    private volatile boolean closed;
+
+    BTreeSnapshot(BTree tree) {
+        this.tree = tree;
+        this.epoch = tree.getEpochs().pin();
+        this.root = tree.getRoot();
+    }
+
+    @Override
+    public Value search(Key key) {
+        checkOpen();
+        Node leaf = leafFor(key);
+        int idx = leaf == null ? -1 : leaf.binarySearch(key);
+        return idx < 0 ? null : tree.leafValue(leaf, idx);
+    }
+
+    /**
+     * An overflow value is read under the pin of the snapshot, the stream does not pin an epoch of its own.
+     */
+    @Override
+    public InputStream searchStream(Key key) {
+        checkOpen();
+        Node leaf = leafFor(key);
+        int idx = leaf == null ? -1 : leaf.binarySearch(key);
+        if (idx < 0)
+            return null;
+        if (!leaf.isOverflow(idx))
+            return new ByteArrayInputStream(tree.leafValue(leaf, idx).value());
+
+        return new FilterInputStream(tree.openOverflow(leaf.getValue(idx), () -> {})) {
+            @Override
+            public int read() throws IOException {
+                checkOpen();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                checkOpen();
+                return super.read(bytes, offset, length);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                checkOpen();
+                return super.skip(n);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Key, Value>> scan(Key from, Key to) {
+        checkOpen();
+        var entries = new BTreeIterator(tree, root, from, to);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                checkOpen();
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Key, Value> next() {
+                checkOpen();
+                return entries.next();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Key, Value>> scanPrefix(Key prefix) {
+        return scan(prefix, BTree.prefixEnd(prefix));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        tree.getEpochs().unpin(epoch);
+    }
+
+    private Node leafFor(Key key) {
+        if (root == UNDEFINED_REF)
+            return null;
+
+        Node node = tree.readNode(root);
+        while (!node.isLeaf()) {
+            node = tree.readNode(node.getChildRef(key));
+        }
+        return node;
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("snapshot is closed");
+    }
+}
@@ -0,0 +1,121 @@
+package core.search.btree;
+
+import core.search.Key;
+import core.search.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+Bottom-up build of a tree from entries in ascending key order.
+Every level fills one node at a time up to the target size. A filled node is held back until the next one
+of its level fills, so the last two nodes of a level can be evened out at the end instead of leaving
+a nearly empty one. Written nodes add their first key and page to the level above.
+Every node is written once. A leaf's page is known only once it is written, so the leaf before it
+gets its next leaf ref patched in place. A leaf is routed to by the separator between it and the leaf before it.
+Values are stored as the tree stores them, compressed or written to overflow pages as they come.
+ */
+class BulkLoader {
+    private final BTree tree;
+    private final int targetSize;
+    private final List<Node> filling = new ArrayList<>(); // node being filled, by level
+    private final List<Node> filled = new ArrayList<>();  // filled node waiting for the next one, by level
+    private final List<Integer> written = new ArrayList<>();
+    private int lastLeaf = UNDEFINED_REF;
+    private Node lastLeafNode;
+    private Key lastKey;
+
+    BulkLoader(BTree tree, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        this.tree = tree;
+        this.targetSize = (int) (tree.pageSize() * fillFactor);
+    }
+
+    void add(Key key, Value value) {
+        if (lastKey != null && key.compareTo(lastKey) <= 0)
+            throw new IllegalArgumentException("bulk load keys must be strictly ascending");
+        lastKey = key;
+        var stored = tree.store(value, written);
+        add(0, key, stored.value(), stored.flags(), UNDEFINED_REF);
+    }
+
+    /**
+     * Writes what is left on every level and returns the root page.
+     */
+    int finish() {
+        for (int level = 0; ; level++) {
+            Node last = filling.get(level);
+            Node previous = filled.get(level);
+            if (previous == null) { // nothing was written on this level, so it is the top
+                if (level > 0 && last.size() == 1)
+                    return last.getChild(0);
+                return write(last, level == 0);
+            }
+
+            if (last.nodeSize() < targetSize / 2) {
+                List<Node> even = Node.split(join(previous, last));
+                for (Node node : even) {
+                    write(node, level);
+                }
+            } else {
+                write(previous, level);
+                write(last, level);
+            }
+        }
+    }
+
+    /**
+     * Pages written so far, freed by the caller if the load fails.
+     */
+    List<Integer> written() {
+        return written;
+    }
+
+    private void add(int level, Key key, Value value, int flags, int child) {
+        if (level == filling.size()) {
+            filling.add(new Node(level == 0, tree.pageSize()));
+            filled.add(null);
+        }
+
+        Node node = filling.get(level);
+        if (!node.isEmpty() && node.sizeWith(key, value) > targetSize) {
+            Node previous = filled.get(level);
+            filled.set(level, node);
+            node = new Node(level == 0, tree.pageSize());
+            filling.set(level, node);
+            if (previous != null)
+                write(previous, level);
+        }
+
+        if (level == 0)
+            node.leafUpdate(key, value, flags);
+        else
+            node.nodeInsert(key, child);
+    }
+
+    private int write(Node node, boolean leaf) {
+        int ref = tree.writeNode(node);
+        written.add(ref);
+        if (leaf) {
+            tree.linkLeaf(lastLeaf, ref);
+            lastLeaf = ref;
+        }
+        return ref;
+    }
+
+    private void write(Node node, int level) {
+        Key separator = level == 0 && lastLeafNode != null ? Node.separator(lastLeafNode, node) : node.getKey(0);
+        int ref = write(node, level == 0);
+        if (level == 0)
+            lastLeafNode = node;
+        add(level + 1, separator, null, 0, ref);
+    }
+
+    private static Node join(Node left, Node right) {
+        Node joined = left.copy();
+        joined.append(right, 0, right.size());
+        return joined;
+    }
+}
@@ -6,169 +6,381 @@ import core.search.Value;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /*
-Node structure in buffer:
-| node type | keys amount | ||key size| |key|| * amount | |children ref| * amount | ||value size| |value|| * amount | empty |
-|    2b     |      2b     | ||   2b   | |Nb || * amount | |    4b      | * amount | ||    2b    | |  Nb || * amount |  ...  |
-
-if node is leaf, then children ref empty, else value part is empty
+Node structure in buffer, a slotted page:
+| node type | keys amount | next leaf ref | cells start | freed bytes | prefix size | prefix | |slot| * amount | free space | cells |
+|    1b     |      2b     |      4b       |     2b      |     2b      |     2b      |   Nb   | | 2b | * amount |    ...     |  ...  |
+
+Every key of the node starts with the prefix, cells keep only the rest of the key.
+Slots hold the offsets of the cells in key order, cells are placed from the end of the page towards the slots.
+| leaf cell:  |suffix size| |value size| |key suffix| |value| |    | inner cell: |suffix size| |children ref| |key suffix| |
+|             |    2b     | |    2b    | |    Nb    | | Nb  | |    |             |    2b     | |     4b     | |    Nb    | |
+The top bits of the value size are value flags: OVERFLOW marks a value kept in overflow pages,
+the cell holds the ref to them then, COMPRESSED one stored compressed.
+Only leaves have the next leaf ref. Freed bytes are the ones between the cells left by removed or shrunk entries,
+they are reclaimed once a new cell does not fit the free space.
+Leaves are chained left to right through next leaf ref, the last leaf holds UNDEFINED_REF.
+
+Earlier formats are still read. Slotted pages without a prefix have types 3 and 4 and no prefix fields.
+Sequential pages have type 0 for inner nodes and 2 for leaves:
+| node type | keys amount | next leaf ref | ||key size| |key|| * amount | |children ref| * amount | ||value size| |value|| * amount |
+Leaves written before the chain existed have type 1 and no ref, they decode as UNLINKED_REF.
+
+Keys of an inner node route: the child at a key gets the keys from it up to the next key, the first child
+also all keys below. Between leaves they are cut to the shortest key that still routes the same way.
+
+In memory a node is its page, with the slots and the prefix kept aside. Lookups compare the serialized keys in place,
+changes patch cells in place or add new ones to the free space, and encode only fills in the header and the slots.
+A key that does not start with the prefix shortens it for the whole node, a split gives every part
+the longest prefix of its keys. A node that outgrows a page before it is split gets a larger buffer.
+Every node knows the page size of its tree. The cells start of an empty 64 KiB page does not fit 2 bytes
+and is written as 0, which no other page has.
  */
 public class Node {
+    public static final int UNLINKED_REF = -2;
+    public static final int OVERFLOW = 0x8000;
+    public static final int COMPRESSED = 0x4000;
+    public static final int NEXT_LEAF_OFFSET = 1 + 2;
+
+    private static final byte SEQUENTIAL_INNER_TYPE = 0;
+    private static final byte UNLINKED_LEAF_TYPE = 1;
+    private static final byte SEQUENTIAL_LEAF_TYPE = 2;
+    private static final byte SLOTTED_INNER_TYPE = 3;
+    private static final byte SLOTTED_LEAF_TYPE = 4;
+    private static final byte INNER_TYPE = 5;
+    private static final byte LEAF_TYPE = 6;
+    private static final int SLOT_SIZE = 2;
+    private static final int VALUE_FLAGS = OVERFLOW | COMPRESSED;
+    private static final int INITIAL_SLOTS = 16;
+    private static final byte[] NO_PREFIX = new byte[0];
+
     //region Node fields
 
-    private boolean isLeaf;
-    private List<Key> keys;
-    private List<Integer> childrenRefs;
-    private List<Value> values;
+    private final boolean isLeaf;
+    private final int pageSize;
+    private int count;
+    private int[] slots;    // cell offsets in key order
+    private byte[] page;    // pageSize long unless the node outgrew a page
+    private int cellsStart; // offset of the lowest cell
+    private int freed;      // bytes from cellsStart on not used by any cell
+    private byte[] prefix = NO_PREFIX;
+    private int nextLeafRef = PagingConstants.UNDEFINED_REF;
     //endregion
 
     public Node(boolean isLeaf) {
+        this(isLeaf, PagingConstants.DEFAULT_PAGE_SIZE);
+    }
+
+    public Node(boolean isLeaf, int pageSize) {
+        this(isLeaf, new int[INITIAL_SLOTS], new byte[pageSize], pageSize);
+        this.cellsStart = page.length;
+    }
+
+    private Node(boolean isLeaf, int[] slots, byte[] page, int pageSize) {
         this.isLeaf = isLeaf;
-        keys = new ArrayList<>();
-        childrenRefs = new ArrayList<>();
-        values = new ArrayList<>();
+        this.slots = slots;
+        this.page = page;
+        this.pageSize = pageSize;
     }
 
-    private Node() {
-        keys = new ArrayList<>();
-        childrenRefs = new ArrayList<>();
-        values = new ArrayList<>();
+    public Node copy() {
+        Node copy = new Node(isLeaf, Arrays.copyOf(slots, Math.max(count, INITIAL_SLOTS)), page.clone(), pageSize);
+        copy.count = count;
+        copy.cellsStart = cellsStart;
+        copy.freed = freed;
+        copy.prefix = prefix;
+        copy.nextLeafRef = nextLeafRef;
+        return copy;
     }
 
     //region Byte buffer encoding decoding
     public static ByteBuffer encode(Node node) {
-        if (node.nodeSize() > PagingConstants.PAGE_SIZE) throw new RuntimeException("node to big");
-
-        var buff = ByteBuffer.allocate(PagingConstants.PAGE_SIZE);
-        buff.put((byte) (node.isLeaf ? 1 : 0));
-        buff.putShort((short) node.keys.size());
-
-        for (var key : node.keys) {
-            buff.putShort((short)key.getKeyLength());
-            buff.put(key.key());
+        if (node.nodeSize() > node.pageSize) throw new RuntimeException("node to big");
+        if (node.page.length != node.pageSize || node.cellsStart < node.slotsEnd(node.count))
+            node.repack(node.pageSize, node.prefix);
+
+        var bytes = node.page.clone();
+        bytes[0] = node.isLeaf ? LEAF_TYPE : INNER_TYPE;
+        writeSize(bytes, 1, node.count);
+        int offset = 1 + 2;
+        if (node.isLeaf) {
+            writeInt(bytes, offset, node.nextLeafRef);
+            offset += 4;
         }
-        if (node.isLeaf){
-            for (var value : node.values) {
-                buff.putShort((short)value.value().length);
-                buff.put(value.value());
-            }
-        } else {
-            for (int ref : node.childrenRefs) {
-                buff.putInt(ref);
-            }
+        writeSize(bytes, offset, node.cellsStart);
+        writeSize(bytes, offset + 2, node.freed);
+        writeSize(bytes, offset + 4, node.prefix.length);
+        offset += 2 + 2 + 2;
+        System.arraycopy(node.prefix, 0, bytes, offset, node.prefix.length);
+        offset += node.prefix.length;
+        for (int i = 0; i < node.count; i++) {
+            writeSize(bytes, offset + i * SLOT_SIZE, node.slots[i]);
         }
-        buff.rewind();
-        return buff;
+        return ByteBuffer.wrap(bytes);
     }
 
     public static Node decode(ByteBuffer buffer) {
-        if (buffer.capacity() > PagingConstants.PAGE_SIZE) throw new RuntimeException("node to big");
-        Node node = new Node();
-        node.isLeaf = buffer.get() == 1;
-        short keysCount = buffer.getShort();
+        return decode(buffer, PagingConstants.DEFAULT_PAGE_SIZE);
+    }
 
-        node.keys = new ArrayList<>();
+    /**
+     * Reads the page from the buffer position on, the buffer itself is left as it is.
+     */
+    public static Node decode(ByteBuffer buffer, int pageSize) {
+        if (buffer.capacity() > pageSize) throw new RuntimeException("node to big");
+        var page = new byte[pageSize];
+        buffer.get(buffer.position(), page, 0, buffer.remaining());
+
+        byte type = page[0];
+        if (type < SLOTTED_INNER_TYPE)
+            return decodeSequential(page);
+
+        int keysCount = readSize(page, 1);
+        Node node = new Node(type == LEAF_TYPE || type == SLOTTED_LEAF_TYPE, new int[Math.max(keysCount, INITIAL_SLOTS)], page, pageSize);
+        node.count = keysCount;
+        int offset = 1 + 2;
+        if (node.isLeaf) {
+            node.nextLeafRef = readInt(page, offset);
+            offset += 4;
+        }
+        node.cellsStart = readSize(page, offset);
+        if (node.cellsStart == 0)
+            node.cellsStart = page.length;
+        node.freed = readSize(page, offset + 2);
+        offset += 2 + 2;
+        if (type == INNER_TYPE || type == LEAF_TYPE) {
+            int prefixSize = readSize(page, offset);
+            offset += 2;
+            node.prefix = Arrays.copyOfRange(page, offset, offset + prefixSize);
+            offset += prefixSize;
+        }
         for (int i = 0; i < keysCount; i++) {
-            short keyLen = buffer.getShort();
-            var b = new byte[keyLen];
-            buffer.get(b);
-            var key = new Key(b);
-            node.keys.add(key);
+            node.slots[i] = readSize(page, offset + i * SLOT_SIZE);
         }
+        return node;
+    }
 
-        if (node.isLeaf) {
-            node.values = new ArrayList<>();
-
-            for (int i = 0; i < keysCount; i++) {
-                short valueLen = buffer.getShort();
-                var b = new byte[valueLen];
-                buffer.get(b);
-                var value = new Value(b);
-                node.values.add(value);
-            }
-        } else {
-            node.childrenRefs = new ArrayList<>();
-            for (int i = 0; i < keysCount; i++) {
-                var ref = buffer.getInt();
-                node.childrenRefs.add(ref);
-            }
+    /*
+    Moves the entries of a sequential page into cells, a full one may take more than a page that way.
+     */
+    private static Node decodeSequential(byte[] page) {
+        byte type = page[0];
+        Node node = new Node(type != SEQUENTIAL_INNER_TYPE, page.length);
+        int keysCount = readSize(page, 1);
+        int offset = 1 + 2;
+        if (type == SEQUENTIAL_LEAF_TYPE) {
+            node.nextLeafRef = readInt(page, offset);
+            offset += 4;
+        } else if (type == UNLINKED_LEAF_TYPE) {
+            node.nextLeafRef = UNLINKED_REF;
         }
 
-        buffer.flip();
+        var keys = new byte[keysCount][];
+        for (int i = 0; i < keysCount; i++) {
+            int size = readSize(page, offset);
+            keys[i] = Arrays.copyOfRange(page, offset + 2, offset + 2 + size);
+            offset += 2 + size;
+        }
+        for (int i = 0; i < keysCount; i++) {
+            if (node.isLeaf) {
+                int size = readSize(page, offset);
+                node.insertAt(i, keys[i], Arrays.copyOfRange(page, offset + 2, offset + 2 + size), 0);
+                offset += 2 + size;
+            } else {
+                node.insertAt(i, keys[i], null, readInt(page, offset));
+                offset += 4;
+            }
+        }
         return node;
     }
     //endregion
 
     //region Size methods
     public int nodeSize() {
-        int size = 1 + 2; // flag + keys count
-        for (var key : this.keys) {
-            size += 2 + key.getKeyLength();
-        }
-        if (this.isLeaf) {
-            for (var value : this.values) {
-                size += 2 + value.value().length;
-            }
-        } else {
-            size += this.keys.size() * 4; // amount of children * size of ref
-        }
+        return headerSize(isLeaf) + prefix.length + count * SLOT_SIZE + liveBytes();
+    }
 
-        return size;
+    /*
+    Fixed part of the header, the prefix follows it.
+     */
+    private static int headerSize(boolean leaf) {
+        return leaf ? 1 + 2 + 4 + 2 + 2 + 2 : 1 + 2 + 2 + 2 + 2; // flag + keys count + next leaf ref + cells start + freed + prefix size
     }
 
     public boolean isMergingSize() {
         int size = this.nodeSize();
-        return size <= PagingConstants.PAGE_SIZE / 4;
+        return size <= pageSize / 4;
+    }
+
+    /**
+     * Size of the node mergeTwoChildren makes of the two, their common prefix may be shorter than either of them.
+     */
+    public static int mergedSize(Node left, Node right) {
+        if (left.count == 0) return right.nodeSize();
+        if (right.count == 0) return left.nodeSize();
+
+        int common = commonLength(left.prefix, 0, left.prefix.length, right.prefix, 0, right.prefix.length);
+        return headerSize(left.isLeaf) + common + (left.count + right.count) * SLOT_SIZE
+                + left.liveBytes() + (left.prefix.length - common) * left.count
+                + right.liveBytes() + (right.prefix.length - common) * right.count;
+    }
+
+    /*
+    Size of the node once the entry is added, for a key that is not present yet.
+     */
+    int sizeWith(Key key, Value value) {
+        byte[] bytes = key.key();
+        int common = count == 0 ? bytes.length : commonLength(prefix, 0, prefix.length, bytes, 0, bytes.length);
+        int valueSize = value == null ? 0 : value.value().length;
+        return headerSize(isLeaf) + common + (count + 1) * SLOT_SIZE + liveBytes() + (prefix.length - common) * count
+                + cellSize(isLeaf, bytes.length - common, valueSize);
+    }
+
+    private int liveBytes() {
+        return page.length - cellsStart - freed;
+    }
+
+    private int slotsEnd(int slots) {
+        return headerSize(isLeaf) + prefix.length + slots * SLOT_SIZE;
+    }
+    //endregion
+
+    //region Entry access
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public Key getKey(int idx) {
+        checkIndex(idx);
+        int cell = slots[idx];
+        int suffix = readSize(page, cell);
+        var bytes = Arrays.copyOf(prefix, prefix.length + suffix);
+        System.arraycopy(page, keyStart(cell), bytes, prefix.length, suffix);
+        return new Key(bytes);
+    }
+
+    public Value getValue(int idx) {
+        if (!this.isLeaf) throw new UnsupportedOperationException("value cannot be obtained from a non-leaf node");
+        checkIndex(idx);
+        int cell = slots[idx];
+        int offset = keyStart(cell) + readSize(page, cell);
+        return new Value(Arrays.copyOfRange(page, offset, offset + valueSize(page, cell)));
+    }
+
+    /**
+     * True when the value at the index is a ref to overflow pages, getValue returns the ref then.
+     */
+    public boolean isOverflow(int idx) {
+        return (valueFlags(idx) & OVERFLOW) != 0;
+    }
+
+    public boolean isCompressed(int idx) {
+        return (valueFlags(idx) & COMPRESSED) != 0;
+    }
+
+    private int valueFlags(int idx) {
+        if (!this.isLeaf) throw new UnsupportedOperationException("value cannot be obtained from a non-leaf node");
+        checkIndex(idx);
+        return readSize(page, slots[idx] + 2) & VALUE_FLAGS;
+    }
+
+    public int getChild(int idx) {
+        if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot be obtained from a leaf node");
+        checkIndex(idx);
+        return readInt(page, slots[idx] + 2);
+    }
+
+    /**
+     * Index of the key, or (-(insertion point) - 1) when it is absent, as Collections.binarySearch.
+     * The prefix is compared once, then only the suffixes.
+     */
+    public int binarySearch(Key key) {
+        byte[] bytes = key.key();
+        int shared = Math.min(prefix.length, bytes.length);
+        int cmp = Arrays.compareUnsigned(bytes, 0, shared, prefix, 0, shared);
+        if (cmp > 0)
+            return -(count + 1);
+        if (cmp < 0 || bytes.length < prefix.length)
+            return -1;
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cell = slots[mid];
+            int offset = keyStart(cell);
+            cmp = Arrays.compareUnsigned(page, offset, offset + readSize(page, cell), bytes, prefix.length, bytes.length);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= count) throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " keys");
     }
     //endregion
 
     private int getKeyIndex(Key key) {
-        int newKeyIndex = Collections.binarySearch(this.keys, key);
+        int newKeyIndex = binarySearch(key);
         if (newKeyIndex >= 0) return newKeyIndex;
         return -newKeyIndex - 2;
     }
 
+    /*
+    The first key of an inner node does not route, keys below it belong to the first child too.
+     */
+    private int routeIndex(Key key) {
+        return Math.max(0, getKeyIndex(key));
+    }
+
     public Value getKeyValue(Key key) {
         if (!this.isLeaf) throw new UnsupportedOperationException("value cannot be obtained from a non-leaf node");
-        if (values == null || values.isEmpty()) throw new ArrayStoreException("Trying to get value when Node has no values");
-
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
+        if (count == 0) throw new ArrayStoreException("Trying to get value when Node has no values");
 
-        if (this.keys.get(idx).compareTo(key) != 0)
+        int idx = binarySearch(key);
+        if (idx < 0)
             return null;
 
-        return this.values.get(idx);
+        return getValue(idx);
     }
 
     public int getChildRef(Key key) {
         if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot be obtained from a leaf node");
-        if (childrenRefs == null || childrenRefs.isEmpty()) throw new ArrayStoreException("Trying to get child when Node has no children");
+        if (count == 0) throw new ArrayStoreException("Trying to get child when Node has no children");
 
-
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
-
-        return this.childrenRefs.get(idx);
+        return getChild(routeIndex(key));
     }
 
     public boolean isLeaf() {
         return isLeaf;
     }
 
-    public List<Key> getKeys() {
-        return Collections.unmodifiableList(this.keys);
+    public int getChildIndex(Key key) {
+        if (this.isLeaf) throw new UnsupportedOperationException("child cannot be obtained from a leaf node");
+
+        return routeIndex(key);
     }
 
-    public List<Value> getValues() {
-        return Collections.unmodifiableList(this.values);
+    public int getNextLeaf() {
+        return nextLeafRef;
     }
 
-    public List<Integer> getChildrenRefs() {
-        return Collections.unmodifiableList(this.childrenRefs);
+    public void setNextLeaf(int ref) {
+        if (!this.isLeaf) throw new UnsupportedOperationException("next leaf cannot be set on a non-leaf node");
+        this.nextLeafRef = ref;
     }
 
     //region Node insertions and updates
@@ -179,45 +391,71 @@ public class Node {
     public void nodeUpdate(Key key, int child, Key newKey) {
         if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot inserted to leaf node");
 
-        if (this.keys.isEmpty()) {
-            this.keys.add(key);
-            this.childrenRefs.add(child);
+        if (count == 0) {
+            insertAt(0, key.key(), null, child);
+            return;
         }
 
         int idx = getKeyIndex(key);
         assert idx >= 0;
 
         if (newKey != null) {
-            this.keys.set(idx, newKey);
-            this.childrenRefs.set(idx, child);
+            removeAt(idx);
+            insertAt(idx, newKey.key(), null, child);
             return;
         }
-        if (this.keys.get(idx).compareTo(key) == 0)
-            this.childrenRefs.set(idx, child);
-        else {
-            this.keys.add(idx + 1, key);
-            this.childrenRefs.add(idx + 1, child);
+        if (binarySearch(key) == idx)
+            writeInt(page, slots[idx] + 2, child);
+        else
+            insertAt(idx + 1, key.key(), null, child);
+    }
+
+    /**
+     * Puts the child at its sorted position, unlike nodeUpdate the key may be below every present key.
+     */
+    public void nodeInsert(Key key, int child) {
+        if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot inserted to leaf node");
+
+        int idx = binarySearch(key);
+        if (idx >= 0) {
+            writeInt(page, slots[idx] + 2, child);
+            return;
         }
+        insertAt(-idx - 1, key.key(), null, child);
     }
 
     public void leafUpdate(Key key, Value value) {
+        leafUpdate(key, value, 0);
+    }
+
+    /**
+     * A value not longer than the present one is written over it, a longer one gets a new cell.
+     * The flags tell how the value is read back, an OVERFLOW value is the ref to its overflow pages.
+     */
+    public void leafUpdate(Key key, Value value, int flags) {
         if (!this.isLeaf) throw new UnsupportedOperationException("value cannot be inserted to a non-leaf node");
+        if (value.value().length > Value.MAX_VALUE_SIZE) throw new IllegalArgumentException("value too long for a leaf");
 
-        if (this.keys.isEmpty()) {
-            this.keys.add(key);
-            this.values.add(value);
+        byte[] bytes = value.value();
+        int idx = binarySearch(key); // below every key when a batch removed the first key before adding a smaller one
+        if (idx < 0) {
+            insertAt(-idx - 1, key.key(), bytes, 0);
+            setFlags(slots[-idx - 1], flags);
             return;
         }
 
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
-
-        if (this.keys.get(idx).compareTo(key) == 0)
-            this.values.set(idx, value);
-        else {
-            this.keys.add(idx + 1, key);
-            this.values.add(idx + 1, value);
+        int cell = slots[idx];
+        int present = valueSize(page, cell);
+        if (bytes.length > present) {
+            removeAt(idx);
+            insertAt(idx, key.key(), bytes, 0);
+            setFlags(slots[idx], flags);
+            return;
         }
+        writeSize(page, cell + 2, bytes.length);
+        setFlags(cell, flags);
+        System.arraycopy(bytes, 0, page, keyStart(cell) + readSize(page, cell), bytes.length);
+        freed += present - bytes.length;
     }
     //endregion
 
@@ -225,31 +463,24 @@ public class Node {
     public boolean leafDelete(Key key) {
         if (!this.isLeaf) throw new UnsupportedOperationException("value cannot be deleted from a non-leaf node");
 
-        if (this.keys.isEmpty())
+        int idx = binarySearch(key);
+        if (idx < 0)
             return false;
 
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
-
-        if (this.keys.get(idx).compareTo(key) == 0) {
-            this.keys.remove(idx);
-            this.values.remove(idx);
-            return true;
-        }
-        return false;
+        removeAt(idx);
+        return true;
     }
 
     public boolean nodeDelete(Key key) {
         if (this.isLeaf) throw new UnsupportedOperationException("childrenRef cannot be deleted from a non-leaf node");
 
-        if (this.keys.isEmpty())
+        if (count == 0)
             return false;
 
         int idx = getKeyIndex(key);
         assert idx >= 0;
 
-        this.keys.remove(idx);
-        this.childrenRefs.remove(idx);
+        removeAt(idx);
         return true;
     }
     //endregion
@@ -259,57 +490,296 @@ public class Node {
     public int getRightSiblingRef(Key key) {
         if (this.isLeaf) throw new UnsupportedOperationException("sibling cannot be obtained from a leaf node");
 
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
-
-        if ((idx + 1) >= this.childrenRefs.size())
+        int idx = routeIndex(key);
+        if ((idx + 1) >= count)
             return -1;
 
-        return this.childrenRefs.get(idx + 1);
+        return getChild(idx + 1);
     }
 
     public int getLeftSiblingRef(Key key) {
         if (this.isLeaf) throw new UnsupportedOperationException("sibling cannot be obtained from a leaf node");
 
-        int idx = getKeyIndex(key);
-        assert idx >= 0;
-
+        int idx = routeIndex(key);
         if (idx < 1)
             return -1;
 
-        return this.childrenRefs.get(idx - 1);
+        return getChild(idx - 1);
+    }
+
+    public void setChild(int idx, int child) {
+        if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot be set on a leaf node");
+        checkIndex(idx);
+        writeInt(page, slots[idx] + 2, child);
     }
 
-    public void insertSplitChildren(List<Node> children, List<Integer> refs) {
-        for (int i = 0; i < children.size(); i++) {
-            nodeUpdate(children.get(i).keys.getFirst(), refs.get(i));
+    /**
+     * The key must keep the keys sorted, it routes to the child every key from it up to the next one.
+     */
+    public void insertChild(int idx, Key key, int child) {
+        if (this.isLeaf) throw new UnsupportedOperationException("childRef cannot inserted to leaf node");
+        if (idx < 0 || idx > count) throw new IndexOutOfBoundsException("Index " + idx + " out of bounds for " + count + " keys");
+        insertAt(idx, key.key(), null, child);
+    }
+
+    /**
+     * The first child passes its key on to the next one, so the first key stays below every key routed here.
+     */
+    public void removeChild(int idx) {
+        if (this.isLeaf) throw new UnsupportedOperationException("childrenRef cannot be deleted from a leaf node");
+        checkIndex(idx);
+        if (idx == 0 && count > 1) {
+            Key first = getKey(0);
+            removeAt(0);
+            setKey(0, first);
+        } else {
+            removeAt(idx);
         }
     }
 
+    /**
+     * Replaces the key the child at the index is routed by, the child stays.
+     */
+    public void setKey(int idx, Key key) {
+        int child = getChild(idx);
+        removeAt(idx);
+        insertAt(idx, key.key(), null, child);
+    }
+
+    /**
+     * Key the parent routes to the right one of two neighbours by. Between leaves it is the shortest key
+     * above every key of the left one and not above the first key of the right one. An inner node
+     * has no such bound, keys of its last child may be anywhere below the first key of the right one.
+     */
+    public static Key separator(Node left, Node right) {
+        Key first = right.getKey(0);
+        if (!left.isLeaf)
+            return first;
+
+        byte[] last = left.getKey(left.count - 1).key();
+        byte[] bytes = first.key();
+        int common = commonLength(last, 0, last.length, bytes, 0, bytes.length);
+        if (common + 1 >= bytes.length)
+            return first;
+        return new Key(Arrays.copyOf(bytes, common + 1));
+    }
+
     public Node mergeTwoChildren(Node left, Node right) {
         assert left.isLeaf == right.isLeaf : "Incompatible children types";
 
-        left.keys.addAll(right.keys);
-        if (left.isLeaf) {
-            left.values.addAll(right.values);
+        left.append(right, 0, right.count);
+        if (left.isLeaf)
+            left.nextLeafRef = right.nextLeafRef;
+
+        return left;
+    }
+
+    /**
+     * Adds entries of another node after the last one, they must be above every present key.
+     */
+    void append(Node src, int from, int to) {
+        if (from >= to)
+            return;
+        if (count == 0) {
+            cellsStart = page.length;
+            freed = 0;
+            prefix = src.commonPrefix(from, to);
         } else {
-            left.childrenRefs.addAll(right.childrenRefs);
+            int common = commonLength(prefix, 0, prefix.length, src.prefix, 0, src.prefix.length);
+            if (common < prefix.length)
+                shortenPrefix(common, to - from);
         }
 
-        return left;
+        for (int i = from; i < to; i++) {
+            int srcCell = src.slots[i];
+            int cell = allocate(movedCellSize(src, srcCell, prefix));
+            moveCell(src, srcCell, page, cell, prefix);
+            addSlot(count, cell);
+        }
+    }
+
+    /*
+    Longest prefix of the keys in the range, the keys are sorted so it is the one of the first and the last.
+     */
+    private byte[] commonPrefix(int from, int to) {
+        int first = slots[from];
+        int last = slots[to - 1];
+        int common = commonLength(page, keyStart(first), keyStart(first) + readSize(page, first),
+                page, keyStart(last), keyStart(last) + readSize(page, last));
+        var result = Arrays.copyOf(prefix, prefix.length + common);
+        System.arraycopy(page, keyStart(first), result, prefix.length, common);
+        return result;
+    }
+    //endregion
+
+    //region Cells
+    private void insertAt(int idx, byte[] key, byte[] value, int child) {
+        if (count == 0) {
+            cellsStart = page.length;
+            freed = 0;
+            prefix = key.clone();
+        } else {
+            int common = commonLength(prefix, 0, prefix.length, key, 0, key.length);
+            if (common < prefix.length)
+                shortenPrefix(common, 1);
+        }
+
+        int suffix = key.length - prefix.length;
+        int valueSize = value == null ? 0 : value.length;
+        int cell = allocate(cellSize(isLeaf, suffix, valueSize));
+        writeSize(page, cell, suffix);
+        if (isLeaf)
+            writeSize(page, cell + 2, valueSize);
+        else
+            writeInt(page, cell + 2, child);
+        System.arraycopy(key, prefix.length, page, keyStart(cell), suffix);
+        if (isLeaf)
+            System.arraycopy(value, 0, page, keyStart(cell) + suffix, valueSize);
+        addSlot(idx, cell);
+    }
+
+    /*
+    Moves the cut part of the prefix into every cell, leaving room for the given number of new slots.
+     */
+    private void shortenPrefix(int length, int newSlots) {
+        int needed = headerSize(isLeaf) + length + (count + newSlots) * SLOT_SIZE
+                + liveBytes() + (prefix.length - length) * count;
+        repack(needed <= page.length ? page.length : Math.max(needed, page.length * 2), Arrays.copyOf(prefix, length));
+    }
+
+    private void addSlot(int idx, int cell) {
+        if (count == slots.length)
+            slots = Arrays.copyOf(slots, Math.max(INITIAL_SLOTS, slots.length * 2));
+        System.arraycopy(slots, idx, slots, idx + 1, count - idx);
+        slots[idx] = cell;
+        count++;
+    }
+
+    private void removeAt(int idx) {
+        freed += cellSize(slots[idx]);
+        System.arraycopy(slots, idx + 1, slots, idx, count - idx - 1);
+        count--;
+    }
+
+    /*
+    Takes room for a cell below the others, keeping space for one more slot. Freed bytes are reclaimed
+    when the free space is too small, the page grows only when that is not enough either.
+     */
+    private int allocate(int size) {
+        int slotsEnd = slotsEnd(count + 1);
+        if (cellsStart - size < slotsEnd) {
+            int needed = slotsEnd + liveBytes() + size;
+            repack(needed <= page.length ? page.length : Math.max(needed, page.length * 2), prefix);
+        }
+        cellsStart -= size;
+        return cellsStart;
+    }
+
+    /*
+    Moves the cells next to each other at the end of a buffer of the given size, with keys cut to the new prefix.
+    Every key must start with it.
+     */
+    private void repack(int capacity, byte[] newPrefix) {
+        var packed = new byte[capacity];
+        int offset = capacity;
+        for (int i = 0; i < count; i++) {
+            offset -= movedCellSize(this, slots[i], newPrefix);
+            moveCell(this, slots[i], packed, offset, newPrefix);
+            slots[i] = offset;
+        }
+        page = packed;
+        prefix = newPrefix;
+        cellsStart = offset;
+        freed = 0;
+    }
+
+    private static int movedCellSize(Node src, int cell, byte[] newPrefix) {
+        return src.cellSize(cell) + src.prefix.length - newPrefix.length;
+    }
+
+    /*
+    Copies a cell of the source node to the buffer with its key suffix taken relative to the new prefix.
+     */
+    private static void moveCell(Node src, int cell, byte[] dst, int dstCell, byte[] newPrefix) {
+        int suffix = readSize(src.page, cell);
+        int rest = suffix + (src.isLeaf ? valueSize(src.page, cell) : 0); // suffix and value follow each other
+        int kept = src.prefix.length - newPrefix.length; // bytes of the old prefix that become part of the suffix
+
+        writeSize(dst, dstCell, suffix + kept);
+        System.arraycopy(src.page, cell + 2, dst, dstCell + 2, src.isLeaf ? 2 : 4);
+        int from = src.keyStart(cell);
+        int to = src.keyStart(dstCell);
+        if (kept >= 0) {
+            System.arraycopy(src.prefix, newPrefix.length, dst, to, kept);
+            System.arraycopy(src.page, from, dst, to + kept, rest);
+        } else {
+            System.arraycopy(src.page, from - kept, dst, to, rest + kept);
+        }
+    }
+
+    private static int cellSize(boolean leaf, int suffixSize, int valueSize) {
+        return leaf ? 2 + 2 + suffixSize + valueSize : 2 + 4 + suffixSize;
+    }
+
+    private int cellSize(int cell) {
+        return cellSize(isLeaf, readSize(page, cell), isLeaf ? valueSize(page, cell) : 0);
+    }
+
+    private static int valueSize(byte[] page, int cell) {
+        return readSize(page, cell + 2) & ~VALUE_FLAGS;
+    }
+
+    private void setFlags(int cell, int flags) {
+        writeSize(page, cell + 2, valueSize(page, cell) | flags & VALUE_FLAGS);
+    }
+
+    private int keyStart(int cell) {
+        return cell + (isLeaf ? 2 + 2 : 2 + 4);
+    }
+
+    private static int commonLength(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int mismatch = Arrays.mismatch(a, aFrom, aTo, b, bFrom, bTo);
+        return mismatch < 0 ? aTo - aFrom : mismatch;
+    }
+
+    private static int readSize(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+    }
+
+    private static void writeSize(byte[] bytes, int offset, int size) {
+        bytes[offset] = (byte) (size >>> 8);
+        bytes[offset + 1] = (byte) size;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 |
+                (bytes[offset + 1] & 0xFF) << 16 |
+                (bytes[offset + 2] & 0xFF) << 8 |
+                bytes[offset + 3] & 0xFF;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
     }
     //endregion
 
     //region Node splitting
     public static List<Node> split(Node old) {
-        if (old.nodeSize() <= PagingConstants.PAGE_SIZE) {
+        if (old.nodeSize() <= old.pageSize) {
             return Collections.singletonList(old);
         }
+        if (old.nodeSize() > 2 * old.pageSize) {
+            return splitEven(old); // only a batch grows a node this far
+        }
 
         Node[] two = split2(old);
         Node left = two[0], right = two[1];
+        right.nextLeafRef = old.nextLeafRef; // the rest of the chain is linked by whoever writes the parts
 
-        if (left.nodeSize() <= PagingConstants.PAGE_SIZE) {
+        if (left.nodeSize() <= old.pageSize) {
             return List.of(left, right);
         }
 
@@ -318,17 +788,22 @@ public class Node {
     }
 
     private static Node[] split2(Node old) {
-        int nkeys = old.keys.size();
+        int nkeys = old.count;
         if (nkeys < 2) throw new IllegalArgumentException("need >=2 keys to split");
 
+        var before = new int[nkeys + 1]; // bytes the entries before an index take
+        for (int i = 0; i < nkeys; i++) {
+            before[i + 1] = before[i] + entrySize(old, i);
+        }
+        int header = old.slotsEnd(0); // the parts have at least the prefix of the node
         int nleft = nkeys / 2;
 
-        while (nleft > 0 && partialSize(old, 0, nleft) > PagingConstants.PAGE_SIZE) {
+        while (nleft > 0 && header + before[nleft] > old.pageSize) {
             nleft--;
         }
         if (nleft < 1) nleft = 1;
 
-        while (nleft < nkeys && partialSize(old, nleft, nkeys) > PagingConstants.PAGE_SIZE) {
+        while (nleft < nkeys && header + before[nkeys] - before[nleft] > old.pageSize) {
             nleft++;
         }
         if (nleft >= nkeys) nleft = nkeys - 1;
@@ -338,33 +813,40 @@ public class Node {
         return new Node[]{ left, right };
     }
 
-    private static int partialSize(Node src, int from, int to) {
-        int size = 1 + 2; // 1 байт флага + 2 байта количества ключей
-        for (int i = from; i < to; i++) {
-            size += 2 + src.keys.get(i).getKeyLength();
-        }
-        if (src.isLeaf) {
-            for (int i = from; i < to; i++) {
-                size += 2 + src.values.get(i).value().length;
+    /*
+    Cuts the node into the fewest pages that can hold it, with entries spread evenly between them.
+     */
+    private static List<Node> splitEven(Node old) {
+        int nkeys = old.count;
+        int payload = old.nodeSize() - old.slotsEnd(0);
+        int pageCapacity = old.pageSize - old.slotsEnd(0);
+        int parts = (payload + pageCapacity - 1) / pageCapacity;
+        int target = payload / parts;
+
+        List<Node> result = new ArrayList<>(parts + 1);
+        int from = 0;
+        int size = 0;
+        for (int i = 0; i < nkeys; i++) {
+            int entry = entrySize(old, i);
+            if (i > from && (size + entry > pageCapacity || size >= target)) {
+                result.add(sliceNode(old, from, i));
+                from = i;
+                size = 0;
             }
-        } else {
-            size += (to - from) * 4;
+            size += entry;
         }
-        return size;
+        result.add(sliceNode(old, from, nkeys));
+        result.getLast().nextLeafRef = old.nextLeafRef;
+        return result;
     }
 
-    private static Node sliceNode(Node src, int from, int to) {
-        Node dst = new Node();
-        dst.isLeaf = src.isLeaf;
-        dst.keys = new ArrayList<>(src.keys.subList(from, to));
+    private static int entrySize(Node src, int idx) {
+        return SLOT_SIZE + src.cellSize(src.slots[idx]);
+    }
 
-        if (src.isLeaf) {
-            dst.values = new ArrayList<>(src.values.subList(from, to));
-        } else {
-            dst.childrenRefs = new ArrayList<>(
-                    src.childrenRefs.subList(from, to)
-            );
-        }
+    private static Node sliceNode(Node src, int from, int to) {
+        Node dst = new Node(src.isLeaf, src.pageSize);
+        dst.append(src, from, to);
         return dst;
     }
     //endregion
@@ -0,0 +1,192 @@
+package core.search.btree;
+
+import core.exception.StorageAccessException;
+import core.page.PageDumper;
+import core.search.Value;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static core.page.PagingConstants.UNDEFINED_REF;
+
+/*
+Values longer than a leaf keeps are written to pages of their own, the leaf holds only a ref to them.
+Data pages hold the bytes of the value in order, every one full but the last, so larger pages take fewer of them. Index pages list the data pages
+and are chained, so freeing a value or finding its pages on recovery reads only the index pages.
+
+Ref kept in the leaf:
+| value size | first index page |
+|     4b     |        4b        |
+
+Index page structure:
+| next index page | pages amount | |data page ref| * amount |
+|       4b        |      2b      | |     4b      | * amount |
+ */
+final class OverflowPages {
+    static final int REF_SIZE = 4 + 4;
+
+    private static final int INDEX_HEADER_SIZE = 4 + 2;
+
+    private final PageDumper dumper;
+    private final int pageSize;
+    private final int refsPerIndex;
+
+    OverflowPages(PageDumper dumper) {
+        this.dumper = dumper;
+        this.pageSize = dumper.pageSize();
+        this.refsPerIndex = (pageSize - INDEX_HEADER_SIZE) / 4;
+    }
+
+    /**
+     * Writes the value and returns the ref the leaf keeps, every written page is added to the list.
+     * Index pages are written last to first, so each one knows the next.
+     */
+    Value write(Value value, List<Integer> written) {
+        byte[] bytes = value.value();
+        int dataPages = (bytes.length + pageSize - 1) / pageSize;
+        var data = new int[dataPages];
+        for (int i = 0; i < dataPages; i++) {
+            var page = new byte[pageSize];
+            int from = i * pageSize;
+            System.arraycopy(bytes, from, page, 0, Math.min(pageSize, bytes.length - from));
+            data[i] = writePage(page, written);
+        }
+
+        int next = UNDEFINED_REF;
+        for (int from = (dataPages - 1) / refsPerIndex * refsPerIndex; from >= 0; from -= refsPerIndex) {
+            int amount = Math.min(refsPerIndex, dataPages - from);
+            var index = ByteBuffer.allocate(pageSize).putInt(next).putShort((short) amount);
+            for (int i = from; i < from + amount; i++) {
+                index.putInt(data[i]);
+            }
+            next = writePage(index.array(), written);
+        }
+        return new Value(ByteBuffer.allocate(REF_SIZE).putInt(bytes.length).putInt(next).array());
+    }
+
+    Value read(Value ref) {
+        var bytes = new byte[size(ref)];
+        try (var in = open(ref, () -> {})) {
+            in.readNBytes(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+        return new Value(bytes);
+    }
+
+    /**
+     * Stream over the value that reads a page only once it gets to it, the action runs when it is closed.
+     */
+    InputStream open(Value ref, Runnable onClose) {
+        return new OverflowStream(ref, onClose);
+    }
+
+    /**
+     * Index and data pages of the value.
+     */
+    List<Integer> pages(Value ref) {
+        List<Integer> pages = new ArrayList<>();
+        for (int index = firstIndex(ref); index != UNDEFINED_REF; ) {
+            pages.add(index);
+            ByteBuffer page = readPage(index);
+            int amount = Short.toUnsignedInt(page.getShort(4));
+            for (int i = 0; i < amount; i++) {
+                pages.add(page.getInt(INDEX_HEADER_SIZE + i * 4));
+            }
+            index = page.getInt(0);
+        }
+        return pages;
+    }
+
+    static int size(Value ref) {
+        return ByteBuffer.wrap(ref.value()).getInt(0);
+    }
+
+    private static int firstIndex(Value ref) {
+        return ByteBuffer.wrap(ref.value()).getInt(4);
+    }
+
+    private int writePage(byte[] page, List<Integer> written) {
+        try {
+            int ref = dumper.set(ByteBuffer.wrap(page));
+            written.add(ref);
+            return ref;
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+    }
+
+    private ByteBuffer readPage(int ref) {
+        try {
+            return dumper.get(ref).slice();
+        } catch (IOException e) {
+            throw new StorageAccessException(e.getMessage(), e.getCause());
+        }
+    }
+
+    private class OverflowStream extends InputStream {
+        private final Runnable onClose;
+        private int remaining;
+        private int nextIndex;
+        private ByteBuffer index;   // index page being read
+        private int indexPosition;  // next data page in it
+        private ByteBuffer data;    // data page being read
+        private int dataPosition;
+        private boolean closed;
+
+        OverflowStream(Value ref, Runnable onClose) {
+            this.onClose = onClose;
+            this.remaining = size(ref);
+            this.nextIndex = firstIndex(ref);
+        }
+
+        @Override
+        public int read() {
+            var one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (closed) throw new IllegalStateException("stream is closed");
+            if (length == 0)
+                return 0;
+            if (remaining == 0)
+                return -1;
+
+            if (data == null || dataPosition == pageSize)
+                nextDataPage();
+            int read = Math.min(length, Math.min(remaining, pageSize - dataPosition));
+            data.get(dataPosition, bytes, offset, read);
+            dataPosition += read;
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            onClose.run();
+        }
+
+        private void nextDataPage() {
+            if (index == null || indexPosition == Short.toUnsignedInt(index.getShort(4))) {
+                index = readPage(nextIndex);
+                nextIndex = index.getInt(0);
+                indexPosition = 0;
+            }
+            data = readPage(index.getInt(INDEX_HEADER_SIZE + indexPosition++ * 4));
+            dataPosition = 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package core.search.btree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Page reclamation for readers running next to the single writer.
+Every published root starts a new epoch. A reader pins the current epoch for as long as it uses
+pages of the root it read, a pin is a counter increment and never waits for the writer.
+Pages the writer frees are reachable from the roots of the ending epoch and the ones before it,
+they are handed back once all of these epochs have no readers left.
+
+The stamp is odd while a change is being written: chain refs of live leaves are patched in place then,
+a reader following them checks the stamp did not move while it read the leaf.
+ */
+final class ReadEpochs {
+    static final class Epoch {
+        private final AtomicInteger readers = new AtomicInteger();
+        private List<Integer> retired = List.of();
+    }
+
+    private volatile Epoch current = new Epoch();
+    private volatile long stamp;
+    private final Deque<Epoch> ended = new ArrayDeque<>(); // writer only, oldest first
+    private List<Integer> retiring = new ArrayList<>();   // writer only
+
+    Epoch pin() {
+        while (true) {
+            Epoch epoch = current;
+            epoch.readers.incrementAndGet();
+            if (current == epoch)
+                return epoch;
+            epoch.readers.decrementAndGet(); // a root was published in between, its pages may be handed back already
+        }
+    }
+
+    void unpin(Epoch epoch) {
+        epoch.readers.decrementAndGet();
+    }
+
+    long stamp() {
+        return stamp;
+    }
+
+    static boolean isWriting(long stamp) {
+        return (stamp & 1) != 0;
+    }
+
+    void beginWrite() {
+        stamp++;
+    }
+
+    /**
+     * Ends a change that published nothing.
+     */
+    void endWrite() {
+        stamp++;
+    }
+
+    void retire(int ref) {
+        retiring.add(ref);
+    }
+
+    /**
+     * Starts a new epoch once a root was published and returns the pages no reader can reach anymore.
+     */
+    List<Integer> publish() {
+        Epoch ending = current;
+        ending.retired = retiring;
+        retiring = new ArrayList<>();
+        ended.add(ending);
+        current = new Epoch();
+        stamp++;
+        return reclaimable();
+    }
+
+    /**
+     * Pages of ended epochs whose readers are all gone, every earlier epoch included.
+     */
+    List<Integer> reclaimable() {
+        List<Integer> free = new ArrayList<>();
+        while (!ended.isEmpty() && ended.peek().readers.get() == 0) {
+            free.addAll(ended.poll().retired);
+        }
+        return free;
+    }
+}
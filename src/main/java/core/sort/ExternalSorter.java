@@ -0,0 +1,251 @@
+package core.sort;
+
+import core.exception.StorageAccessException;
+import core.search.Key;
+import core.search.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/*
+Sorts more entries than fit in memory. Entries are buffered up to the memory budget,
+sorted and spilled to a run file, then the runs are merged through a heap holding one entry per run.
+Input that fits in the budget is sorted in memory and never touches the disk.
+Equal keys keep the entry that came last in the input, so the output is strictly ascending.
+The read buffers of the merge count toward the budget as well: it bounds how many runs are read
+at once, more runs are first merged in passes of that many neighbouring runs.
+
+Run file structure:
+| ||key size| |key| |value size| |value|| * entries |
+| ||   2b   | |Nb | |    4b    | |  Nb || * entries |
+ */
+public class ExternalSorter implements AutoCloseable {
+    public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+
+    private static final int ENTRY_OVERHEAD = 64; // entry, key and value objects and their arrays
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_IO_BUFFER_SIZE = 4 * 1024;
+    private static final int MIN_FAN_IN = 2;
+    private static final int MAX_FAN_IN = 256; // open run files
+    private static final Comparator<Map.Entry<Key, Value>> BY_KEY = Map.Entry.comparingByKey();
+
+    private final Path tempDirectory;
+    private final long memoryBytes;
+    private final int bufferSize;
+    private final int fanIn; // runs read at once, one buffer each and one more for the merged run
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Path> merged = new ArrayList<>(); // written by the current merge pass
+    private final List<DataInputStream> readers = new ArrayList<>();
+    private int spilled;
+
+    public ExternalSorter(Path tempDirectory) {
+        this(tempDirectory, DEFAULT_MEMORY_BYTES);
+    }
+
+    public ExternalSorter(Path tempDirectory, long memoryBytes) {
+        if (memoryBytes < 1) throw new IllegalArgumentException("memory budget must be positive");
+        this.tempDirectory = tempDirectory;
+        this.memoryBytes = memoryBytes;
+        this.bufferSize = Math.clamp(memoryBytes / (MIN_FAN_IN + 1), MIN_IO_BUFFER_SIZE, IO_BUFFER_SIZE);
+        this.fanIn = Math.clamp(memoryBytes / bufferSize - 1, MIN_FAN_IN, MAX_FAN_IN);
+    }
+
+    /**
+     * Consumes the input and returns its entries in ascending key order.
+     * Run files stay until the sorter is closed, the returned iterator fails after that.
+     */
+    public Iterator<Map.Entry<Key, Value>> sort(Iterator<Map.Entry<Key, Value>> input) throws IOException {
+        List<Map.Entry<Key, Value>> buffer = new ArrayList<>();
+        long buffered = 0;
+        while (input.hasNext()) {
+            var entry = input.next();
+            buffer.add(entry);
+            buffered += entry.getKey().getKeyLength() + entry.getValue().value().length + ENTRY_OVERHEAD;
+            if (buffered >= memoryBytes) {
+                spill(buffer);
+                buffer.clear();
+                buffered = 0;
+            }
+        }
+
+        if (runs.isEmpty())
+            return sortedUnique(buffer).iterator();
+        if (!buffer.isEmpty())
+            spill(buffer);
+        buffer.clear();
+        reduceRuns();
+        return merge(runs);
+    }
+
+    /**
+     * Runs spilled while reading the input.
+     */
+    public int runCount() {
+        return spilled;
+    }
+
+    int maxOpenRuns() {
+        return fanIn;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+        for (var run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        for (var run : merged) {
+            Files.deleteIfExists(run);
+        }
+        merged.clear();
+    }
+
+    private void spill(List<Map.Entry<Key, Value>> buffer) throws IOException {
+        Path run = Files.createTempFile(tempDirectory, "serfer-run", ".tmp");
+        runs.add(run);
+        spilled++;
+        write(run, sortedUnique(buffer).iterator());
+    }
+
+    private void write(Path run, Iterator<Map.Entry<Key, Value>> entries) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), bufferSize))) {
+            while (entries.hasNext()) {
+                var entry = entries.next();
+                out.writeShort(entry.getKey().getKeyLength());
+                out.write(entry.getKey().key());
+                out.writeInt(entry.getValue().value().length);
+                out.write(entry.getValue().value());
+            }
+        }
+    }
+
+    /*
+    Merges neighbouring runs until at most fanIn are left. Groups keep their order,
+    so a later run still holds later input and its entries win among equal keys.
+     */
+    private void reduceRuns() throws IOException {
+        while (runs.size() > fanIn) {
+            for (int from = 0; from < runs.size(); from += fanIn) {
+                var group = runs.subList(from, Math.min(from + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.getFirst());
+                    continue;
+                }
+                Path run = Files.createTempFile(tempDirectory, "serfer-run", ".tmp");
+                merged.add(run);
+                write(run, merge(group));
+                for (var reader : readers) {
+                    reader.close();
+                }
+                readers.clear();
+                for (var done : group) {
+                    Files.delete(done);
+                }
+            }
+            runs.clear();
+            runs.addAll(merged);
+            merged.clear();
+        }
+    }
+
+    /*
+    Stable sort keeps equal keys in input order, the last of them wins.
+     */
+    private static List<Map.Entry<Key, Value>> sortedUnique(List<Map.Entry<Key, Value>> entries) {
+        entries.sort(BY_KEY);
+        List<Map.Entry<Key, Value>> unique = new ArrayList<>(entries.size());
+        for (var entry : entries) {
+            if (!unique.isEmpty() && unique.getLast().getKey().equals(entry.getKey()))
+                unique.set(unique.size() - 1, entry);
+            else
+                unique.add(entry);
+        }
+        return unique;
+    }
+
+    private Iterator<Map.Entry<Key, Value>> merge(List<Path> group) throws IOException {
+        // a later run holds later input, it goes first among equal keys
+        var heap = new PriorityQueue<Run>(Comparator.<Run, Key>comparing(run -> run.head.getKey())
+                .thenComparing(run -> -run.index));
+        for (int i = 0; i < group.size(); i++) {
+            var reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(group.get(i)), bufferSize));
+            readers.add(reader);
+            var run = new Run(i, reader);
+            if (run.advance())
+                heap.add(run);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<Key, Value> next() {
+                if (heap.isEmpty()) throw new NoSuchElementException();
+                Run top = heap.poll();
+                var result = top.head;
+                step(top);
+                while (!heap.isEmpty() && heap.peek().head.getKey().equals(result.getKey())) {
+                    step(heap.poll()); // older entry of the same key
+                }
+                return result;
+            }
+
+            private void step(Run run) {
+                if (run.advance())
+                    heap.add(run);
+            }
+        };
+    }
+
+    private static class Run {
+        final int index;
+        final DataInputStream in;
+        Map.Entry<Key, Value> head;
+
+        Run(int index, DataInputStream in) {
+            this.index = index;
+            this.in = in;
+        }
+
+        boolean advance() {
+            try {
+                int keySize;
+                try {
+                    keySize = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    head = null;
+                    return false;
+                }
+                var key = new byte[keySize];
+                in.readFully(key);
+                var value = new byte[in.readInt()];
+                in.readFully(value);
+                head = new AbstractMap.SimpleImmutableEntry<>(new Key(key), new Value(value));
+                return true;
+            } catch (IOException e) {
+                throw new StorageAccessException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -2,7 +2,9 @@ package examples.smarthub;
 
 import api.SEntity;
 import api.Serfer;
+import api.SerferConfig;
 import api.SerferStorage;
+import core.memory.cache.EvictionPolicy;
 
 import java.io.IOException;
 import java.util.Map;
@@ -11,12 +13,15 @@ import java.util.concurrent.TimeUnit;
 public class SmartHomeHub {
 
     private static final String DB_FILE = "smart-home.db";
+    private static final long CACHE_SIZE = 1024 * 1024;
 
     private Serfer storage;
     private final SensorSimulator simulator = new SensorSimulator();
 
     public SmartHomeHub() throws IOException {
-        storage = SerferStorage.openOrCreate(DB_FILE);
+        storage = SerferStorage.openOrCreate(DB_FILE, SerferConfig.builder()
+                .pageCache(CACHE_SIZE, EvictionPolicy.LRU)
+                .build());
     }
 
     public void simulateSensorUpdate() throws IOException {
@@ -27,29 +32,23 @@ public class SmartHomeHub {
                 "sensor:water:kitchen", simulator.readWaterUsage()
         );
 
-        for (var entry : newStates.entrySet()) {
-            String key = entry.getKey();
-            int value = entry.getValue();
-            System.out.printf("Updating %s → %d%n", key, value);
-            storage.insert(key, SEntity.of(value));
+        try (var transaction = storage.beginTransaction()) {
+            for (var entry : newStates.entrySet()) {
+                String key = entry.getKey();
+                int value = entry.getValue();
+                System.out.printf("Updating %s → %d%n", key, value);
+                transaction.put(key, SEntity.of(value));
+            }
+            transaction.commit();
         }
-
     }
 
     public void printLastKnownState() {
         System.out.println("Last known sensor states:");
-        for (String key : new String[]{
-                "sensor:temp:livingroom",
-                "sensor:temp:kitchen",
-                "sensor:co2:bedroom",
-                "sensor:water:kitchen"
-        }) {
-            storage.tryGet(key)
-                    .flatMap(SEntity::asInt)
-                    .ifPresentOrElse(
-                            val -> System.out.printf(" %s = %d%n", key, val),
-                            () -> System.out.printf(" %s = N/A%n", key));
-        }
+        storage.scanPrefix("sensor:").forEach(entry -> entry.getValue().asInt()
+                .ifPresentOrElse(
+                        val -> System.out.printf(" %s = %d%n", entry.getKey(), val),
+                        () -> System.out.printf(" %s = N/A%n", entry.getKey())));
     }
 
     public void shutdown() throws IOException {
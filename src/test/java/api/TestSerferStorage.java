@@ -2,12 +2,34 @@ package api;
 
 import api.exception.StorageAlreadyExistsException;
 import api.exception.StorageNotFoundException;
+import core.compress.Compression;
 import core.exception.StorageAccessException;
+import core.memory.StorageEngine;
+import core.memory.StorageMode;
+import core.metrics.MetricsSnapshot;
 import org.junit.jupiter.api.*;
+
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
 import static org.junit.jupiter.api.Assertions.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -117,4 +139,516 @@ class TestSerferStorage {
         Path missing = tempFile.resolveSibling("missing_" + System.nanoTime());
         assertThrows(StorageNotFoundException.class, () -> SerferStorage.freeStorage(missing.toString()));
     }
+
+    @Test
+    void testWriteAheadLogRecoversUnflushedChanges() throws IOException {
+        Path path = tempFile.resolveSibling("wal_db_" + System.nanoTime());
+        var config = SerferConfig.builder().writeAheadLog().build();
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        crashed.insert("kept", SEntity.of(1));
+        crashed.insert("removed", SEntity.of(2));
+        crashed.delete("removed");
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertEquals(1, recovered.get("kept").asInt().get());
+        assertFalse(recovered.contains("removed"));
+
+        recovered.insert("after", SEntity.of(3));
+        recovered.flush();
+
+        Serfer reopened = SerferStorage.open(path.toString(), config);
+        assertEquals(1, reopened.get("kept").asInt().get());
+        assertEquals(3, reopened.get("after").asInt().get());
+        reopened.freeStorage();
+    }
+
+    @Test
+    void testLargeValuesSurviveRecovery() throws IOException {
+        Path path = tempFile.resolveSibling("large_db_" + System.nanoTime());
+        var config = SerferConfig.builder().writeAheadLog().build();
+        String manifest = "firmware manifest line\n".repeat(20_000);
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        crashed.insert("manifest", SEntity.of(manifest));
+        crashed.insert("small", SEntity.of(1));
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertEquals(manifest, recovered.get("manifest").asString().get());
+        recovered.insert("manifest2", SEntity.of(manifest.toUpperCase()));
+        recovered.flush();
+
+        Serfer reopened = SerferStorage.open(path.toString(), config);
+        assertEquals(manifest, reopened.get("manifest").asString().get());
+        assertEquals(manifest.toUpperCase(), reopened.get("manifest2").asString().get());
+        assertEquals(1, reopened.get("small").asInt().get());
+        reopened.freeStorage();
+    }
+
+    @Test
+    void testCompressionCanChangeBetweenOpens() throws IOException {
+        Path path = tempFile.resolveSibling("lz4_db_" + System.nanoTime());
+        String payload = "{\"temperature\": 21.5, \"humidity\": 40, \"room\": \"kitchen\"}".repeat(8);
+
+        Serfer compressed = SerferStorage.openOrCreate(path.toString(), SerferConfig.builder().compression(Compression.LZ4).build());
+        for (int i = 0; i < 500; i++) {
+            compressed.insert("reading:" + i, SEntity.of(payload + i));
+        }
+        assertEquals(500, compressed.metrics().snapshot().value("btree.compression.values"));
+        compressed.flush();
+
+        Serfer plain = SerferStorage.open(path.toString());
+        assertEquals(payload + 7, plain.get("reading:7").asString().get());
+        plain.insert("reading:7", SEntity.of("raw"));
+        assertEquals("raw", plain.get("reading:7").asString().get());
+        assertEquals(500, plain.scanPrefix("reading:").count());
+        plain.freeStorage();
+    }
+
+    @Test
+    void testPageSizeIsChosenOnCreate() throws IOException {
+        Path path = tempFile.resolveSibling("page_size_db_" + System.nanoTime());
+        var config = SerferConfig.builder().pageSize(16 * 1024).storageEngine(StorageEngine.MEMORY_MAPPED).build();
+
+        Serfer created = SerferStorage.create(path.toString(), config);
+        for (int i = 0; i < 3_000; i++) {
+            created.insert("key:" + i, SEntity.of("value " + i));
+        }
+        assertEquals(16 * 1024, created.metrics().snapshot().value("btree.page.size"));
+        created.flush();
+
+        Serfer reopened = SerferStorage.open(path.toString(), SerferConfig.builder().pageSize(64 * 1024).build());
+        assertEquals(16 * 1024, reopened.metrics().snapshot().value("btree.page.size"));
+        assertEquals("value 2999", reopened.get("key:2999").asString().get());
+        assertEquals(3_000, reopened.scanPrefix("key:").count());
+        reopened.freeStorage();
+
+        assertThrows(IllegalArgumentException.class, () -> SerferConfig.builder().pageSize(1024));
+        assertThrows(IllegalArgumentException.class, () -> SerferConfig.builder().pageSize(128 * 1024));
+    }
+
+    @Test
+    void testCheckpointKeepsStorageOpen() throws IOException {
+        Path path = tempFile.resolveSibling("ckpt_db_" + System.nanoTime());
+        var config = SerferConfig.builder().storageMode(StorageMode.IN_PLACE).build();
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        crashed.insert("kept", SEntity.of(1));
+        crashed.checkpoint();
+        crashed.insert("lost", SEntity.of(2));
+        assertEquals(2, crashed.get("lost").asInt().get());
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertEquals(1, recovered.get("kept").asInt().get());
+        assertFalse(recovered.contains("lost"));
+        recovered.freeStorage();
+    }
+
+    @Test
+    void testInPlaceReusesFreedPagesWithoutCheckpointCalls() throws IOException {
+        Path path = tempFile.resolveSibling("reuse_db_" + System.nanoTime());
+        Path log = path.resolveSibling(path.getFileName() + ".wal");
+        var config = SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .writeAheadLog()
+                .build();
+        String payload = "x".repeat(100);
+
+        Serfer serfer = SerferStorage.openOrCreate(path.toString(), config);
+        long loadedSize = 0;
+        long loadLog = 0;
+        long maxLog = 0;
+        for (int round = 0; round < 30; round++) { // every round replaces all keys
+            for (int from = 0; from < 2_000; from += 50) {
+                var batch = new WriteBatch();
+                for (int i = from; i < from + 50; i++) {
+                    if (round > 0)
+                        batch.delete("key:" + (round - 1) + ":" + i);
+                    batch.put("key:" + round + ":" + i, SEntity.of(payload + i));
+                }
+                serfer.write(batch);
+            }
+            if (round == 0) {
+                loadedSize = Files.size(path);
+                loadLog = Files.size(log);
+            }
+            maxLog = Math.max(maxLog, Files.size(log));
+        }
+
+        assertTrue(serfer.metrics().snapshot().value("pages.reused") > 0);
+        // live pages, plus the freed ones waiting for the checkpoint
+        assertTrue(Files.size(path) < loadedSize + 2L * SerferConfig.DEFAULT_CHECKPOINT_PAGES * DEFAULT_PAGE_SIZE);
+        assertTrue(maxLog < 10 * loadLog);
+        serfer.freeStorage();
+    }
+
+    @Test
+    void testCheckpointWithWriteAheadLog() throws IOException {
+        Path path = tempFile.resolveSibling("ckpt_wal_db_" + System.nanoTime());
+        var config = SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .writeAheadLog()
+                .build();
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        for (int i = 0; i < 200; i++) {
+            crashed.insert("key" + i, SEntity.of(i));
+        }
+        crashed.checkpoint();
+        crashed.delete("key0");
+        crashed.insert("after", SEntity.of(-1));
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertFalse(recovered.contains("key0"));
+        for (int i = 1; i < 200; i++) {
+            assertEquals(i, recovered.get("key" + i).asInt().get());
+        }
+        assertEquals(-1, recovered.get("after").asInt().get());
+        recovered.freeStorage();
+    }
+
+    @Test
+    void testBackgroundCheckpoints() throws IOException, InterruptedException {
+        Path path = tempFile.resolveSibling("bg_ckpt_db_" + System.nanoTime());
+        var config = SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .writeAheadLog()
+                .checkpointInterval(Duration.ofMillis(1))
+                .build();
+
+        Serfer serfer = SerferStorage.openOrCreate(path.toString(), config);
+        for (int i = 0; i < 500; i++) {
+            serfer.insert("key" + i, SEntity.of(i));
+            if (i % 100 == 0)
+                Thread.sleep(5);
+        }
+        serfer.flush();
+
+        Serfer reopened = SerferStorage.open(path.toString(), config);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, reopened.get("key" + i).asInt().get());
+        }
+        reopened.freeStorage();
+    }
+
+    @Test
+    void testCheckpointIntervalDependsOnStorageMode() {
+        assertEquals(Duration.ZERO, SerferConfig.defaults().getCheckpointInterval());
+        assertEquals(SerferConfig.DEFAULT_IN_PLACE_CHECKPOINT_INTERVAL,
+                SerferConfig.builder().storageMode(StorageMode.IN_PLACE).build().getCheckpointInterval());
+        assertEquals(Duration.ZERO, SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .checkpointInterval(Duration.ZERO)
+                .build().getCheckpointInterval());
+
+        var neverCheckpoints = SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .writeAheadLog()
+                .checkpointInterval(Duration.ZERO)
+                .checkpointThresholds(0, 0);
+        assertThrows(IllegalArgumentException.class, neverCheckpoints::build);
+    }
+
+    @Test
+    void testInsertAllAndWriteBatch() {
+        Map<String, SEntity> entries = new HashMap<>();
+        for (int i = 0; i < 1_000; i++) {
+            entries.put("key" + i, SEntity.of(i));
+        }
+        storage.insertAll(entries);
+
+        storage.write(new WriteBatch()
+                .delete("key0")
+                .put("key1", SEntity.of("updated"))
+                .put("extra", SEntity.of(-1))
+                .delete("extra"));
+
+        assertFalse(storage.contains("key0"));
+        assertEquals("updated", storage.get("key1").asString().get());
+        assertFalse(storage.contains("extra"));
+        for (int i = 2; i < 1_000; i++) {
+            assertEquals(i, storage.get("key" + i).asInt().get());
+        }
+    }
+
+    @Test
+    void testWriteBatchIsLoggedAsOneRecord() throws IOException {
+        Path path = tempFile.resolveSibling("batch_wal_db_" + System.nanoTime());
+        var config = SerferConfig.builder().writeAheadLog().build();
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        crashed.write(new WriteBatch()
+                .put("a", SEntity.of(1))
+                .put("b", SEntity.of(2))
+                .delete("a"));
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertFalse(recovered.contains("a"));
+        assertEquals(2, recovered.get("b").asInt().get());
+        recovered.freeStorage();
+    }
+
+    @Test
+    void testScanAndScanPrefix() {
+        storage.insert("sensor:temp:kitchen", SEntity.of(21));
+        storage.insert("sensor:temp:livingroom", SEntity.of(23));
+        storage.insert("sensor:co2:bedroom", SEntity.of(600));
+        storage.insert("sensor:temp", SEntity.of(0));
+        storage.insert("sensor:tempo", SEntity.of(1));
+
+        assertEquals(List.of("sensor:temp:kitchen", "sensor:temp:livingroom"),
+                storage.scanPrefix("sensor:temp:").map(Map.Entry::getKey).toList());
+        assertEquals(List.of(21, 23),
+                storage.scanPrefix("sensor:temp:").map(e -> e.getValue().asInt().get()).toList());
+        assertEquals(List.of("sensor:co2:bedroom", "sensor:temp"),
+                storage.scan("sensor:a", "sensor:temp:").map(Map.Entry::getKey).toList());
+        assertEquals(5, storage.scan(null, null).count());
+    }
+
+    @Test
+    void testConcurrentReadersWithOneWriter() throws Exception {
+        int keys = 2_000;
+        int rounds = 30;
+        var initial = new WriteBatch();
+        for (int i = 0; i < keys; i++) {
+            initial.put(String.format("k%05d", i), SEntity.of(0));
+        }
+        storage.write(initial);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        var done = new AtomicBoolean();
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            boolean scanning = t % 2 == 0;
+            readers.add(pool.submit(() -> {
+                var random = new Random();
+                while (!done.get()) {
+                    if (scanning) {
+                        List<String> seen = storage.scanPrefix("k").map(Map.Entry::getKey).toList();
+                        assertEquals(keys, seen.size());
+                        for (int i = 1; i < seen.size(); i++) {
+                            assertTrue(seen.get(i - 1).compareTo(seen.get(i)) < 0);
+                        }
+                    } else {
+                        int value = storage.get(String.format("k%05d", random.nextInt(keys))).asInt().get();
+                        assertTrue(value >= 0 && value <= rounds);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            var batch = new WriteBatch();
+            for (int i = 0; i < keys; i++) {
+                batch.put(String.format("k%05d", i), SEntity.of(round));
+            }
+            for (int i = 0; i < 500; i++) {
+                if (round % 2 == 0)
+                    batch.delete("x" + i);
+                else
+                    batch.put("x" + i, SEntity.of(round));
+            }
+            storage.write(batch);
+            storage.insert("y" + round, SEntity.of(round));
+        }
+        done.set(true);
+        for (var reader : readers) {
+            reader.get();
+        }
+        pool.shutdown();
+
+        assertEquals(rounds, storage.get("k00042").asInt().get());
+        assertFalse(storage.contains("x1"));
+    }
+
+    @Test
+    void testSnapshotIsNotAffectedByLaterWrites() {
+        for (int i = 0; i < 1_000; i++) {
+            storage.insert(String.format("k%04d", i), SEntity.of(i));
+        }
+
+        try (var snapshot = storage.snapshot()) {
+            var batch = new WriteBatch();
+            for (int i = 0; i < 1_000; i++) {
+                if (i % 3 == 0)
+                    batch.delete(String.format("k%04d", i));
+                else
+                    batch.put(String.format("k%04d", i), SEntity.of(-i));
+            }
+            storage.write(batch);
+            storage.insert("k9999", SEntity.of(9999));
+
+            assertEquals(3, snapshot.get("k0003").asInt().get());
+            assertFalse(snapshot.contains("k9999"));
+            assertEquals(1_000, snapshot.scanPrefix("k").count());
+            assertEquals(-4, storage.get("k0004").asInt().get());
+            assertFalse(storage.contains("k0003"));
+        }
+    }
+
+    @Test
+    void testValueStreamKeepsPagesUntilClosed() throws IOException {
+        String big = "v".repeat(100_000);
+        storage.insert("big", SEntity.of(big));
+        storage.insert("small", SEntity.of("tiny"));
+        long overflowPages = storage.metrics().snapshot().value("btree.overflow.pages");
+
+        try (var small = storage.getStream("small")) {
+            assertEquals("tiny", new String(small.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertThrows(IllegalArgumentException.class, () -> storage.getStream("missing"));
+
+        var stream = storage.getStream("big");
+        long released = storage.metrics().snapshot().value("btree.pages.released");
+        storage.delete("big");
+        for (int i = 0; i < 10; i++) {
+            storage.insert("k" + i, SEntity.of(i));
+        }
+        assertEquals(released, storage.metrics().snapshot().value("btree.pages.released"));
+        assertEquals(big, new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+
+        stream.close();
+        storage.insert("after", SEntity.of(0));
+        assertTrue(storage.metrics().snapshot().value("btree.pages.released") >= released + overflowPages);
+    }
+
+    @Test
+    void testSnapshotValueStream() throws IOException {
+        String big = "v".repeat(100_000);
+        storage.insert("big", SEntity.of(big));
+
+        InputStream stream;
+        try (var snapshot = storage.snapshot()) {
+            stream = snapshot.getStream("big");
+            storage.delete("big");
+            assertEquals(big.substring(0, 10), new String(stream.readNBytes(10), StandardCharsets.UTF_8));
+        }
+        assertThrows(IllegalStateException.class, stream::read);
+    }
+
+    @Test
+    void testTransactionCommitsAllChangesAtOnce() {
+        storage.insert("a", SEntity.of(1));
+        storage.insert("b", SEntity.of(2));
+
+        try (var transaction = storage.beginTransaction()) {
+            transaction.put("a", SEntity.of(10)).delete("b").put("c", SEntity.of(30));
+
+            assertEquals(10, transaction.get("a").asInt().get());
+            assertFalse(transaction.contains("b"));
+            assertEquals(1, storage.get("a").asInt().get()); // nothing is visible before commit
+            assertTrue(storage.contains("b"));
+
+            transaction.commit();
+            assertThrows(IllegalStateException.class, () -> transaction.put("d", SEntity.of(4)));
+        }
+
+        assertEquals(10, storage.get("a").asInt().get());
+        assertFalse(storage.contains("b"));
+        assertEquals(30, storage.get("c").asInt().get());
+    }
+
+    @Test
+    void testTransactionRollback() {
+        storage.insert("a", SEntity.of(1));
+
+        var transaction = storage.beginTransaction();
+        transaction.put("a", SEntity.of(10)).put("b", SEntity.of(20));
+        transaction.rollback();
+        assertThrows(IllegalStateException.class, transaction::commit);
+
+        try (var unfinished = storage.beginTransaction()) {
+            unfinished.delete("a");
+        }
+
+        assertEquals(1, storage.get("a").asInt().get());
+        assertFalse(storage.contains("b"));
+    }
+
+    @Test
+    void testCommittedTransactionSurvivesCrash() throws IOException {
+        Path path = tempFile.resolveSibling("tx_db_" + System.nanoTime());
+        var config = SerferConfig.builder().writeAheadLog().build();
+
+        Serfer crashed = SerferStorage.openOrCreate(path.toString(), config);
+        try (var transaction = crashed.beginTransaction()) {
+            for (int i = 0; i < 500; i++) {
+                transaction.put("sensor:" + i, SEntity.of(i));
+            }
+            transaction.commit();
+        }
+        crashed.beginTransaction().put("sensor:lost", SEntity.of(0)); // never committed
+        // no flush: the process is gone
+
+        Serfer recovered = SerferStorage.open(path.toString(), config);
+        assertEquals(500, recovered.scanPrefix("sensor:").count());
+        recovered.freeStorage();
+    }
+
+    @Test
+    void testLoadSortedEntries() throws IOException {
+        var entries = new TreeMap<String, SEntity>();
+        for (int i = 0; i < 5_000; i++) {
+            entries.put(String.format("sensor:%05d", i), SEntity.of(i));
+        }
+
+        storage.load(entries.entrySet().iterator());
+        storage.insert("sensor:extra", SEntity.of(-1));
+        storage.flush();
+
+        storage = SerferStorage.open(tempFile.toString());
+        assertEquals(5_001, storage.scanPrefix("sensor:").count());
+        assertEquals(1234, storage.get("sensor:01234").asInt().get());
+        assertThrows(IllegalStateException.class, () -> storage.load(entries.entrySet().iterator()));
+    }
+
+    @Test
+    void testMetricsCountOperationsAndIo() throws Exception {
+        Path path = tempFile.resolveSibling("metrics_db_" + System.nanoTime());
+        List<MetricsSnapshot> exported = new CopyOnWriteArrayList<>();
+        var config = SerferConfig.builder()
+                .storageMode(StorageMode.IN_PLACE)
+                .metricsExporter(exported::add, Duration.ofHours(1))
+                .jmx(path.getFileName().toString())
+                .build();
+
+        Serfer serfer = SerferStorage.openOrCreate(path.toString(), config);
+        for (int i = 0; i < 2_000; i++) {
+            serfer.insert("key" + i, SEntity.of("value" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            serfer.tryGet("key" + i);
+        }
+        serfer.delete("key0");
+        serfer.checkpoint();
+
+        var metrics = serfer.metrics().snapshot();
+        assertEquals(2_000, metrics.histogram("storage.insert").count());
+        assertEquals(100, metrics.histogram("storage.get").count());
+        assertEquals(1, metrics.histogram("storage.delete").count());
+        assertTrue(metrics.value("btree.splits") > 0);
+        assertTrue(metrics.value("btree.depth") >= 2);
+        assertTrue(metrics.value("pages.writes") >= 2_000);
+        assertEquals(metrics.value("pages.writes"), metrics.value("pages.allocated") + metrics.value("pages.reused")
+                + metrics.value("pages.released"));
+        assertTrue(metrics.value("pages.syncs") >= 2);
+        assertTrue(metrics.value("pages.bytes.synced") > 0);
+
+        var mbean = ObjectName.getInstance("serferdb:type=Storage,name=" + ObjectName.quote(path.getFileName().toString()));
+        var server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(2_000L, server.getAttribute(mbean, "storage.insert.count"));
+        assertEquals(metrics.value("btree.depth"), server.getAttribute(mbean, "btree.depth"));
+
+        serfer.flush();
+        assertFalse(server.isRegistered(mbean));
+        assertEquals(1, exported.size()); // the interval did not pass, flush exports once
+        assertEquals(2_000, exported.getFirst().histogram("storage.insert").count());
+        SerferStorage.freeStorage(path.toString());
+    }
 }
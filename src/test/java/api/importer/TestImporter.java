@@ -0,0 +1,114 @@
+package api.importer;
+
+import api.Serfer;
+import api.SerferStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestImporter {
+    @TempDir
+    Path directory;
+
+    private Serfer storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        storage = SerferStorage.create(directory.resolve("import.db").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storage.freeStorage();
+    }
+
+    @Test
+    void testCsvImportInBoundedMemory() throws IOException {
+        var random = new Random(3);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            int sensor = random.nextInt(20_000);
+            lines.add(String.format("sensor:%05d,%d", sensor, i)); // later lines overwrite earlier readings
+        }
+        lines.add("\"sensor:quoted,key\",\"text, with comma\"");
+        Path csv = directory.resolve("history.csv");
+        Files.write(csv, lines);
+
+        List<ImportProgress> reports = new ArrayList<>();
+        var result = Importer.builder(ImportFormat.CSV)
+                .memory(256 * 1024)
+                .tempDirectory(directory)
+                .progress(reports::add, 10_000)
+                .build()
+                .importInto(storage, csv);
+
+        long distinct = lines.stream().map(line -> line.substring(0, line.lastIndexOf(','))).distinct().count();
+        assertEquals(distinct, result.entries());
+        assertEquals(distinct, storage.scanPrefix("sensor:").count());
+        assertEquals("text, with comma", storage.get("sensor:quoted,key").asString().get());
+
+        var last = lines.get(lines.size() - 2);
+        assertEquals(30_000 - 1, storage.get(last.substring(0, last.indexOf(','))).asInt().get());
+
+        assertTrue(reports.stream().anyMatch(p -> p.phase() == ImportProgress.Phase.READING && p.entries() == 10_000));
+        assertEquals(ImportProgress.Phase.DONE, reports.getLast().phase());
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().startsWith("serfer-run")));
+        }
+    }
+
+    @Test
+    void testNdjsonImport() throws IOException {
+        Path json = directory.resolve("history.ndjson");
+        Files.write(json, List.of(
+                "{\"key\": \"sensor:temp:kitchen\", \"value\": 21, \"ts\": 1700000000}",
+                "",
+                "{\"value\": \"on\", \"key\": \"switch:\\\"hall\\\"\"}",
+                "{\"key\":\"sensor:temp:kitchen\",\"value\":22}"));
+
+        Importer.builder(ImportFormat.NDJSON).build().importInto(storage, json);
+
+        assertEquals(22, storage.get("sensor:temp:kitchen").asInt().get());
+        assertEquals("on", storage.get("switch:\"hall\"").asString().get());
+    }
+
+    @Test
+    void testNdjsonKeepsStringValues() throws IOException {
+        Path json = directory.resolve("devices.ndjson");
+        Files.write(json, List.of(
+                "{\"key\": \"dev:a\", \"value\": \"007\"}",
+                "{\"key\": \"dev:b\", \"value\": \"+5\"}",
+                "{\"key\": \"dev:c\", \"value\": \"42\"}",
+                "{\"key\": \"dev:d\", \"value\": -42}",
+                "{\"key\": \"dev:e\", \"value\": 1.5}",
+                "{\"key\": \"dev:f\", \"value\": 9999999999}"));
+
+        Importer.builder(ImportFormat.NDJSON).build().importInto(storage, json);
+        assertEquals("007", storage.get("dev:a").asString().get());
+        assertEquals("+5", storage.get("dev:b").asString().get());
+        assertEquals("42", storage.get("dev:c").asString().get());
+        assertEquals(-42, storage.get("dev:d").asInt().get());
+        assertEquals("1.5", storage.get("dev:e").asString().get());
+        assertEquals("9999999999", storage.get("dev:f").asString().get());
+    }
+
+    @Test
+    void testParseErrorNamesTheLine() throws IOException {
+        Path json = directory.resolve("broken.ndjson");
+        Files.write(json, List.of("{\"key\": \"a\", \"value\": 1}", "{\"key\": \"b\""));
+
+        var error = assertThrows(IllegalArgumentException.class,
+                () -> Importer.builder(ImportFormat.NDJSON).build().importInto(storage, json));
+        assertTrue(error.getMessage().contains("broken.ndjson:2"));
+    }
+}
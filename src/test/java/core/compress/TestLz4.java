@@ -0,0 +1,73 @@
+package core.compress;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLz4 {
+    @Test
+    void testRoundTrip() {
+        var random = new Random(42);
+        for (int size : new int[]{ 0, 1, 5, 12, 13, 100, 4096, 70_000, 300_000 }) {
+            var noise = new byte[size];
+            random.nextBytes(noise);
+            assertArrayEquals(noise, Lz4.decompress(Lz4.compress(noise)));
+            assertTrue(Lz4.compress(noise).length <= Lz4.maxCompressedSize(size));
+
+            var text = new byte[size]; // few distinct bytes, matches near and far
+            for (int i = 0; i < size; i++) {
+                text[i] = (byte) ('a' + random.nextInt(i % 1000 < 500 ? 3 : 20));
+            }
+            assertArrayEquals(text, Lz4.decompress(Lz4.compress(text)));
+        }
+    }
+
+    @Test
+    void testRepeatedBytesCompress() {
+        var json = "{\"sensor\":\"temperature\",\"room\":\"kitchen\",\"value\":21.5,\"unit\":\"C\"}".repeat(20)
+                .getBytes(StandardCharsets.UTF_8);
+        var compressed = Lz4.compress(json);
+        assertTrue(compressed.length < json.length / 5);
+        assertArrayEquals(json, Lz4.decompress(compressed));
+
+        var run = new byte[100_000]; // one long match overlapping the bytes it copies
+        Arrays.fill(run, (byte) 7);
+        assertTrue(Lz4.compress(run).length < 500);
+        assertArrayEquals(run, Lz4.decompress(Lz4.compress(run)));
+    }
+
+    @Test
+    void testCorruptedInputFails() {
+        var compressed = Lz4.compress("abcabcabcabcabcabcabcabcabcabc".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> Lz4.decompress(Arrays.copyOf(compressed, compressed.length - 3)));
+
+        // one literal, then a match at offset 0 and one reaching before the start
+        assertThrows(IllegalArgumentException.class, () -> Lz4.decompress(new byte[]{ 10, 0x10, 'a', 0x00, 0x00 }));
+        assertThrows(IllegalArgumentException.class, () -> Lz4.decompress(new byte[]{ 10, 0x10, 'a', 0x05, 0x00 }));
+    }
+
+    @Test
+    void testOriginalSizeIsCheckedBeforeAllocating() {
+        // claims almost 2 GiB with a single literal
+        assertThrows(IllegalArgumentException.class, () -> Lz4.decompress(new byte[]{ (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x10, 'a' }));
+
+        var compressed = Lz4.compress(new byte[1000]);
+        assertEquals(1000, Lz4.decompress(compressed, 1000).length);
+        assertThrows(IllegalArgumentException.class, () -> Lz4.decompress(compressed, 999));
+
+        var random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            var garbage = new byte[40];
+            random.nextBytes(garbage);
+            try {
+                assertTrue(Lz4.decompress(garbage).length <= 255 * garbage.length);
+            } catch (IllegalArgumentException expected) {
+                // corrupted, as most random blocks are
+            }
+        }
+    }
+}
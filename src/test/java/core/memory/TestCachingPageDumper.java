@@ -0,0 +1,78 @@
+package core.memory;
+
+import core.memory.cache.EvictionPolicy;
+import core.search.btree.BTree;
+import core.search.btree.utils.TesterDumper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
+import static core.search.btree.utils.ByteArrayWrapper.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestCachingPageDumper {
+
+    @Test
+    void testRepeatReadsAreHits() throws IOException {
+        var dumper = new CachingPageDumper(new TesterDumper(), 4L * DEFAULT_PAGE_SIZE, EvictionPolicy.LRU);
+        int idx = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(42).rewind());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(42, dumper.get(idx).getInt());
+        }
+        assertEquals(10, dumper.getHits());
+        assertEquals(0, dumper.getMisses());
+    }
+
+    @Test
+    void testEvictedPageIsReadFromDelegate() throws IOException {
+        var dumper = new CachingPageDumper(new TesterDumper(), 2L * DEFAULT_PAGE_SIZE, EvictionPolicy.LRU);
+        int first = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(1).rewind());
+        dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(2).rewind());
+        dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(3).rewind());
+
+        assertEquals(2, dumper.getCachedPages());
+        assertEquals(1, dumper.get(first).getInt());
+        assertEquals(1, dumper.getMisses());
+    }
+
+    @Test
+    void testDeletedPageIsInvalidated() throws IOException {
+        var delegate = new TesterDumper();
+        var dumper = new CachingPageDumper(delegate, 4L * DEFAULT_PAGE_SIZE, EvictionPolicy.CLOCK);
+        int idx = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(7).rewind());
+        dumper.delete(idx);
+
+        assertEquals(0, dumper.getCachedPages());
+        assertThrows(RuntimeException.class, () -> dumper.get(idx));
+    }
+
+    @Test
+    void testCachedPagesAreReadOnly() throws IOException {
+        var dumper = new CachingPageDumper(new TesterDumper(), 4L * DEFAULT_PAGE_SIZE, EvictionPolicy.LRU);
+        int idx = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(5).rewind());
+
+        assertThrows(ReadOnlyBufferException.class, () -> dumper.get(idx).putInt(6));
+        assertEquals(5, dumper.get(idx).getInt());
+    }
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void testBTreeOverCache(EvictionPolicy policy) {
+        var dumper = new CachingPageDumper(new TesterDumper(), 16L * DEFAULT_PAGE_SIZE, policy);
+        var tree = new BTree(dumper);
+
+        for (int i = 0; i < 5_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        assertTrue(dumper.getHits() > 0);
+    }
+}
@@ -2,15 +2,17 @@ package core.memory;
 
 import org.junit.jupiter.api.*;
 
-import java.io.File;
+import core.search.btree.BTree;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.zip.CRC32;
 
-import static core.page.PagingConstants.PAGE_SIZE;
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
+import static core.search.btree.utils.ByteArrayWrapper.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TestDumper {
@@ -30,7 +32,7 @@ public class TestDumper {
     @Test
     public void testWriteAndReadPage() throws IOException {
         DiskPageDumper dumper = new DiskPageDumper(dataPath);
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+        ByteBuffer buf = ByteBuffer.allocate(DEFAULT_PAGE_SIZE);
         buf.putInt(42);
         buf.rewind();
 
@@ -44,12 +46,12 @@ public class TestDumper {
     public void testPageReuse() throws IOException {
         DiskPageDumper dumper = new DiskPageDumper(dataPath);
 
-        ByteBuffer buf1 = ByteBuffer.allocate(PAGE_SIZE).putInt(123); buf1.rewind();
+        ByteBuffer buf1 = ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(123); buf1.rewind();
         int id1 = dumper.set(buf1);
 
         dumper.delete(id1);
 
-        ByteBuffer buf2 = ByteBuffer.allocate(PAGE_SIZE).putInt(456); buf2.rewind();
+        ByteBuffer buf2 = ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(456); buf2.rewind();
         int id2 = dumper.set(buf2);
 
         assertEquals(id1, id2);
@@ -57,4 +59,205 @@ public class TestDumper {
         assertEquals(456, readBuf.getInt());
     }
 
+    @Test
+    public void testInPlaceWorksOnMainFile() throws IOException {
+        Path path = Paths.get("_test_in_place.dump");
+        Files.deleteIfExists(path);
+
+        var dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        var tree = new BTree(dumper);
+        for (int i = 0; i < 1_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+        dumper.close();
+
+        dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        tree = new BTree(dumper);
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        dumper.free();
+    }
+
+    @Test
+    public void testInPlaceCrashKeepsLastCommit() throws IOException {
+        Path path = Paths.get("_test_in_place_crash.dump");
+        Files.deleteIfExists(path);
+
+        var dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        var tree = new BTree(dumper);
+        for (int i = 0; i < 1_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        dumper.checkpoint();
+
+        // not committed: rewrites most of the committed pages, then the process "dies"
+        for (int i = 0; i < 1_000; i += 2) {
+            tree.delete(getKey(i));
+        }
+        for (int i = 1_000; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+
+        var recovered = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        tree = new BTree(recovered);
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        assertNull(tree.search(getKey(1_500)));
+
+        for (int i = 2_000; i < 3_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        recovered.free();
+    }
+
+    @Test
+    public void testRecoveryReusesUnreferencedPages() throws IOException {
+        Path path = Paths.get("_test_in_place_recovery.dump");
+        Files.deleteIfExists(path);
+
+        var dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        var tree = new BTree(dumper);
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        dumper.checkpoint();
+        for (int i = 0; i < 2_000; i++) {
+            tree.delete(getKey(i)); // every page of the checkpointed tree is replaced, then the process "dies"
+        }
+
+        var recovered = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        assertTrue(recovered.needsRecovery());
+        tree = new BTree(recovered);
+        assertFalse(recovered.needsRecovery());
+
+        long size = Files.size(path);
+        for (int i = 2_000; i < 2_100; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        assertEquals(size, Files.size(path));
+        for (int i = 0; i < 2_100; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        recovered.free();
+    }
+
+    @Test
+    public void testShadowCopyOpenRecoversCrashedInPlaceFile() throws IOException {
+        Path path = Paths.get("_test_in_place_shadow_reopen.dump");
+        Files.deleteIfExists(path);
+
+        var dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        var tree = new BTree(dumper);
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        dumper.checkpoint();
+        for (int i = 0; i < 2_000; i++) {
+            tree.delete(getKey(i)); // pages popped from the checkpointed free list are overwritten, then the process "dies"
+        }
+
+        var reopened = new DiskPageDumper(path, StorageMode.SHADOW_COPY);
+        assertTrue(reopened.needsRecovery());
+        tree = new BTree(reopened);
+        for (int i = 2_000; i < 2_100; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        for (int i = 0; i < 2_100; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        reopened.close();
+
+        var closed = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        assertFalse(closed.needsRecovery());
+        tree = new BTree(closed);
+        for (int i = 0; i < 2_100; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        closed.free();
+    }
+
+    @Test
+    public void testRecoveryRelinksLeaves() throws IOException {
+        Path path = Paths.get("_test_in_place_relink.dump");
+        Files.deleteIfExists(path);
+
+        var dumper = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        var tree = new BTree(dumper);
+        for (int i = 0; i < 2_000; i += 2) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        dumper.checkpoint();
+        for (int i = 1; i < 2_000; i += 2) {
+            tree.insert(getKey(i), getValue(i)); // checkpointed leaves get linked to pages of the lost changes
+        }
+
+        var recovered = new DiskPageDumper(path, StorageMode.IN_PLACE);
+        tree = new BTree(recovered);
+
+        var entries = tree.scan(null, null);
+        for (int i = 0; i < 2_000; i += 2) {
+            assertTrue(entries.hasNext());
+            assertEquals(getValue(i), entries.next().getValue());
+        }
+        assertFalse(entries.hasNext());
+        recovered.free();
+    }
+
+    @Test
+    public void testTornMetaFallsBackToPreviousSlot() throws IOException {
+        var meta = new Meta(7, 3, 12);
+        meta.sequence = 4;
+        var page = ByteBuffer.allocate(DEFAULT_PAGE_SIZE);
+        page.put(Meta.slotOffset(meta), Meta.encode(meta), 0, Meta.SLOT_SIZE);
+
+        meta.rootRef = 8;
+        meta.sequence = 5;
+        var newer = Meta.encode(meta);
+        newer.put(0, (byte) 0x7F); // torn write of the newer slot
+        page.put(Meta.slotOffset(meta), newer, 0, Meta.SLOT_SIZE);
+
+        var decoded = Meta.decode(page);
+        assertEquals(7, decoded.rootRef);
+        assertEquals(4, decoded.sequence);
+    }
+
+    @Test
+    public void testPageSizeIsKeptInTheFile() throws IOException {
+        for (var engine : StorageEngine.values()) {
+            var created = engine.open(dataPath, StorageMode.IN_PLACE, 16 * 1024);
+            int ref = created.set(ByteBuffer.allocate(16 * 1024).putInt(16 * 1024 - 4, 42).rewind());
+            created.close();
+
+            var reopened = engine.open(dataPath, StorageMode.SHADOW_COPY);
+            assertEquals(16 * 1024, reopened.pageSize());
+            assertEquals(42, reopened.get(ref).getInt(16 * 1024 - 4));
+            reopened.free();
+        }
+        assertThrows(IllegalArgumentException.class, () -> new DiskPageDumper(dataPath, StorageMode.IN_PLACE, 12 * 1024));
+    }
+
+    @Test
+    public void testSlotsWithoutPageSizeHaveDefaultPages() throws IOException {
+        var slot = ByteBuffer.allocate(Meta.SLOT_SIZE - 4); // written before the page size was kept
+        slot.putInt(7).putInt(3).putInt(12).putLong(4).put((byte) 1);
+        var crc = new CRC32();
+        crc.update(slot.array(), 0, slot.position());
+        slot.putInt((int) crc.getValue());
+        var page = ByteBuffer.allocate(DEFAULT_PAGE_SIZE).put(0, slot.array());
+
+        var decoded = Meta.decode(page);
+        assertEquals(7, decoded.rootRef);
+        assertEquals(4, decoded.sequence);
+        assertEquals(DEFAULT_PAGE_SIZE, decoded.pageSize);
+
+        var meta = new Meta(7, 3, 12);
+        meta.pageSize = 64 * 1024;
+        assertEquals(64 * 1024, Meta.decode(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).put(0, Meta.encode(meta), 0, Meta.SLOT_SIZE)).pageSize);
+    }
 }
@@ -0,0 +1,110 @@
+package core.memory;
+
+import core.search.btree.BTree;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
+import static core.search.btree.utils.ByteArrayWrapper.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMappedPageDumper {
+    static final Path dataPath = Paths.get("_test_mapped.dump");
+
+    @BeforeEach
+    @AfterEach
+    void cleanFiles() throws IOException {
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(dataPath.resolveSibling(dataPath.getFileName() + ".tmp"));
+    }
+
+    @Test
+    public void testWriteAndReadPage() throws IOException {
+        MappedPageDumper dumper = new MappedPageDumper(dataPath);
+        int pageId = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(42).rewind());
+
+        assertEquals(42, dumper.get(pageId).getInt());
+        dumper.close();
+    }
+
+    @Test
+    public void testPageReuse() throws IOException {
+        MappedPageDumper dumper = new MappedPageDumper(dataPath);
+        int id1 = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(123).rewind());
+        dumper.delete(id1);
+        int id2 = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(456).rewind());
+
+        assertEquals(id1, id2);
+        assertEquals(456, dumper.get(id2).getInt());
+        dumper.close();
+    }
+
+    @Test
+    public void testGrowsPastFirstChunk() throws IOException {
+        MappedPageDumper dumper = new MappedPageDumper(dataPath);
+        int[] ids = new int[MappedPageDumper.CHUNK_PAGES * 3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(i).rewind());
+        }
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i, dumper.get(ids[i]).getInt());
+        }
+        dumper.close();
+    }
+
+    @Test
+    public void testFileGrowsWithThePages() throws IOException {
+        var dumper = new MappedPageDumper(dataPath, StorageMode.IN_PLACE);
+        assertEquals(DEFAULT_PAGE_SIZE, Files.size(dataPath)); // the meta page only
+
+        int[] ids = new int[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dumper.set(ByteBuffer.allocate(DEFAULT_PAGE_SIZE).putInt(i).rewind());
+        }
+        long size = Files.size(dataPath);
+        assertTrue(size >= 11L * DEFAULT_PAGE_SIZE && size <= 2 * 12L * DEFAULT_PAGE_SIZE);
+        dumper.close();
+
+        dumper = new MappedPageDumper(dataPath, StorageMode.IN_PLACE);
+        assertEquals(size, Files.size(dataPath));
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i, dumper.get(ids[i]).getInt());
+        }
+        dumper.close();
+    }
+
+    @Test
+    public void testFileIsCompatibleWithDiskDumper() throws IOException {
+        var mapped = new MappedPageDumper(dataPath);
+        BTree tree = new BTree(mapped);
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        mapped.close();
+
+        var disk = new DiskPageDumper(dataPath);
+        tree = new BTree(disk);
+        for (int i = 0; i < 2_000; i += 2) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+            tree.delete(getKey(i));
+        }
+        disk.close();
+
+        mapped = new MappedPageDumper(dataPath);
+        tree = new BTree(mapped);
+        for (int i = 0; i < 2_000; i++) {
+            if (i % 2 == 0)
+                assertNull(tree.search(getKey(i)));
+            else
+                assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        mapped.close();
+    }
+}
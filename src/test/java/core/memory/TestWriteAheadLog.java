@@ -0,0 +1,152 @@
+package core.memory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static core.search.btree.utils.ByteArrayWrapper.toBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestWriteAheadLog {
+    static final Path logPath = Paths.get("_test_wal.dump");
+    static final Path sealedPath = Paths.get("_test_wal.dump.old");
+
+    @BeforeEach
+    @AfterEach
+    void cleanFiles() throws IOException {
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(sealedPath);
+    }
+
+    @Test
+    void testReplayReturnsOperationsInOrder() throws IOException {
+        var wal = new WriteAheadLog(logPath);
+        wal.sync(wal.append(WriteAheadLog.Operation.insert(toBytes(1), toBytes("one"))));
+        wal.sync(wal.append(WriteAheadLog.Operation.delete(toBytes(1))));
+        wal.sync(wal.append(List.of(
+                WriteAheadLog.Operation.insert(toBytes(2), toBytes("two")),
+                WriteAheadLog.Operation.insert(toBytes(3), toBytes("three")))));
+        wal.close();
+
+        List<WriteAheadLog.Operation> replayed = new ArrayList<>();
+        wal = new WriteAheadLog(logPath);
+        wal.replay(replayed::add);
+        wal.close();
+
+        assertEquals(4, replayed.size());
+        assertEquals(WriteAheadLog.OperationType.INSERT, replayed.get(0).type());
+        assertArrayEquals(toBytes("one"), replayed.get(0).value());
+        assertEquals(WriteAheadLog.OperationType.DELETE, replayed.get(1).type());
+        assertArrayEquals(toBytes(1), replayed.get(1).key());
+        assertArrayEquals(toBytes(3), replayed.get(3).key());
+    }
+
+    @Test
+    void testTornTailIsCutOff() throws IOException {
+        var wal = new WriteAheadLog(logPath);
+        wal.append(WriteAheadLog.Operation.insert(toBytes(1), toBytes("one")));
+        long end = wal.append(WriteAheadLog.Operation.insert(toBytes(2), toBytes("two")));
+        wal.sync(end);
+        wal.close();
+
+        try (var channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(end - 3);
+        }
+
+        List<WriteAheadLog.Operation> replayed = new ArrayList<>();
+        wal = new WriteAheadLog(logPath);
+        wal.replay(replayed::add);
+        wal.sync(wal.append(WriteAheadLog.Operation.insert(toBytes(3), toBytes("three"))));
+        wal.close();
+
+        replayed.clear();
+        wal = new WriteAheadLog(logPath);
+        wal.replay(replayed::add);
+        wal.close();
+
+        assertEquals(2, replayed.size());
+        assertArrayEquals(toBytes(1), replayed.get(0).key());
+        assertArrayEquals(toBytes(3), replayed.get(1).key());
+    }
+
+    @Test
+    void testConcurrentWritersShareSyncs() throws Exception {
+        var wal = new WriteAheadLog(logPath, Duration.ofMillis(5), 1024 * 1024);
+        int threads = 8;
+        int perThread = 200;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    int key = thread * perThread + i;
+                    wal.sync(wal.append(WriteAheadLog.Operation.insert(toBytes(key), toBytes(key))));
+                }
+            }));
+        }
+        for (var future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        wal.close();
+
+        List<WriteAheadLog.Operation> replayed = new ArrayList<>();
+        var reopened = new WriteAheadLog(logPath);
+        reopened.replay(replayed::add);
+        reopened.free();
+
+        assertEquals(threads * perThread, replayed.size());
+    }
+
+    @Test
+    void testTruncateDropsRecords() throws IOException {
+        var wal = new WriteAheadLog(logPath);
+        wal.append(WriteAheadLog.Operation.insert(toBytes(1), toBytes("one")));
+        wal.truncate();
+        assertEquals(0, wal.size());
+        wal.close();
+
+        List<WriteAheadLog.Operation> replayed = new ArrayList<>();
+        wal = new WriteAheadLog(logPath);
+        wal.replay(replayed::add);
+        wal.close();
+        assertTrue(replayed.isEmpty());
+    }
+
+    @Test
+    void testSealedLogIsReplayedFirst() throws IOException {
+        var wal = new WriteAheadLog(logPath);
+        long beforeSeal = wal.append(WriteAheadLog.Operation.insert(toBytes(1), toBytes("one")));
+        wal.seal();
+        wal.sync(beforeSeal); // positions stay valid across the rotation
+        assertEquals(0, wal.size());
+        wal.sync(wal.append(WriteAheadLog.Operation.insert(toBytes(2), toBytes("two"))));
+        wal.close();
+
+        List<WriteAheadLog.Operation> replayed = new ArrayList<>();
+        wal = new WriteAheadLog(logPath);
+        wal.replay(replayed::add);
+        wal.dropSealed();
+        wal.close();
+
+        assertEquals(2, replayed.size());
+        assertArrayEquals(toBytes(1), replayed.get(0).key());
+        assertArrayEquals(toBytes(2), replayed.get(1).key());
+        assertFalse(Files.exists(sealedPath));
+    }
+}
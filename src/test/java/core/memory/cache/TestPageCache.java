@@ -0,0 +1,55 @@
+package core.memory.cache;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPageCache {
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void testPutGetInvalidate(EvictionPolicy policy) {
+        PageCache<String> cache = policy.create(4);
+        cache.put(1, "one");
+        cache.put(2, "two");
+
+        assertEquals("one", cache.get(1));
+        assertEquals("two", cache.get(2));
+        assertNull(cache.get(3));
+
+        cache.put(1, "uno");
+        assertEquals("uno", cache.get(1));
+
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(2));
+    }
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void testCapacityIsRespected(EvictionPolicy policy) {
+        PageCache<Integer> cache = policy.create(8);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 8);
+        }
+        assertEquals(99, cache.get(99));
+    }
+
+    @ParameterizedTest
+    @EnumSource(EvictionPolicy.class)
+    void testHotPageSurvivesScan(EvictionPolicy policy) {
+        PageCache<Integer> cache = policy.create(8);
+        cache.put(0, 0);
+        for (int i = 1; i < 100; i++) {
+            if (cache.get(0) == null) cache.put(0, 0); // read-through, like CachingPageDumper
+            cache.put(i, i);
+        }
+        assertEquals(0, cache.get(0));
+    }
+}
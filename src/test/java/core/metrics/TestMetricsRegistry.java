@@ -0,0 +1,68 @@
+package core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMetricsRegistry {
+
+    @Test
+    void testHistogramQuantiles() {
+        var histogram = new Histogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+
+        var snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.count());
+        assertEquals(10_000_000, snapshot.max());
+        assertEquals(5_000_500, snapshot.mean());
+        assertWithin(5_000_000, snapshot.p50());
+        assertWithin(9_900_000, snapshot.p99());
+        assertWithin(9_990_000, snapshot.p999());
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        var histogram = new Histogram();
+        for (int i = 0; i < 50; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5); // clock going back counts as zero
+
+        var snapshot = histogram.snapshot();
+        assertEquals(51, snapshot.count());
+        assertEquals(24, snapshot.p50()); // 26th of 0, 0, 1, 2, ...
+        assertEquals(49, snapshot.max());
+    }
+
+    @Test
+    void testRegistrySnapshotAndExport() {
+        var registry = new MetricsRegistry();
+        var depth = new AtomicLong(3);
+        registry.counter("pages.reads").add(5);
+        registry.counter("pages.reads").increment();
+        registry.register("btree.depth", depth::get);
+        registry.histogram("storage.get").record(1_000);
+
+        List<MetricsSnapshot> exported = new ArrayList<>();
+        registry.addExporter(exported::add);
+        depth.set(4);
+        registry.export();
+
+        var snapshot = exported.getFirst();
+        assertEquals(6, snapshot.value("pages.reads"));
+        assertEquals(4, snapshot.value("btree.depth"));
+        assertEquals(1, snapshot.histogram("storage.get").count());
+        assertThrows(IllegalArgumentException.class, () -> registry.register("pages.reads", new Counter()));
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("pages.reads"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.04, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -1,7 +1,11 @@
 package core.search.btree;
 
+import core.compress.Compression;
+import core.metrics.MetricsRegistry;
 import core.page.PageDumper;
+import core.page.PagingConstants;
 import core.search.Key;
+import core.search.Mutation;
 import core.search.Value;
 import core.search.btree.utils.RandomState;
 import core.search.btree.utils.TesterDumper;
@@ -9,7 +13,10 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static core.search.btree.utils.ByteArrayWrapper.*;
@@ -100,4 +107,647 @@ public class TestBTree {
             assertNull(tree.search(copy));
         }
     }
+
+    @Test
+    void testDeleteSplitsGrownParents() {
+        // short and long keys are mixed, deleting the short ones moves a longer key up into full parents
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            var key = ByteBuffer.allocate(state.getRandom().nextBoolean() ? 4 : 200).putInt(i).array();
+            expected.put(new Key(key), getValue(i));
+        }
+        tree.bulkLoad(expected.entrySet().iterator(), 1.0);
+
+        for (var key : new ArrayList<>(expected.keySet())) {
+            if (key.getKeyLength() == 4) {
+                assertTrue(tree.delete(key));
+                expected.remove(key);
+            }
+        }
+        assertLeafChain(expected);
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), tree.search(entry.getKey()));
+        }
+    }
+
+    @Test
+    void testSeparatorsAreCut() {
+        // long keys that differ in their first bytes, inner nodes keep only the bytes that route
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        var random = state.getRandom();
+        for (int round = 0; round < 6; round++) {
+            List<Mutation> batch = new ArrayList<>();
+            for (int i = 0; i < 3_000; i++) {
+                int n = random.nextInt(20_000);
+                var key = Key.from(String.format("%08d", n) + "x".repeat(200));
+                boolean remove = random.nextInt(3) == 0;
+                if (remove)
+                    expected.remove(key);
+                else
+                    expected.put(key, getValue(n));
+
+                if (round % 2 == 1)
+                    batch.add(remove ? Mutation.delete(key) : Mutation.put(key, getValue(n)));
+                else if (remove)
+                    tree.delete(key);
+                else
+                    tree.insert(key, getValue(n));
+            }
+            if (!batch.isEmpty())
+                tree.apply(batch);
+
+            assertLeafChain(expected);
+            for (int n = 0; n < 20_000; n += 7) {
+                var key = Key.from(String.format("%08d", n) + "x".repeat(200));
+                assertEquals(expected.get(key), tree.search(key));
+            }
+        }
+
+        List<Node> inner = new ArrayList<>(List.of(tree.readNode(tree.getRoot())));
+        assertTrue(tree.depth() > 1);
+        while (!inner.isEmpty()) {
+            Node node = inner.removeLast();
+            if (node.isLeaf())
+                continue;
+            for (int i = 0; i < node.size(); i++) {
+                assertTrue(node.getKey(i).getKeyLength() <= 10, "separator " + node.getKey(i));
+                inner.add(tree.readNode(node.getChild(i)));
+            }
+        }
+    }
+
+    @Test
+    void testInnerMergesKeepRouting() {
+        // keys of a family share a long prefix, so separators stay long and inner nodes are small.
+        // Batches drop whole key ranges, keys put back into them land below the first key of inner nodes
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        var random = state.getRandom();
+        for (int round = 0; round < 60; round++) {
+            List<Mutation> batch = new ArrayList<>();
+            if (round % 3 == 2) {
+                var from = familyKey(random.nextInt(40), random.nextInt(400));
+                for (var key : new ArrayList<>(expected.tailMap(from).keySet()).subList(0, Math.min(600, expected.tailMap(from).size()))) {
+                    batch.add(Mutation.delete(key));
+                    expected.remove(key);
+                }
+                tree.apply(batch);
+            } else {
+                for (int i = 0; i < 1_500; i++) {
+                    var key = familyKey(random.nextInt(40), random.nextInt(400));
+                    boolean remove = random.nextInt(round % 3 == 0 ? 5 : 2) == 0;
+                    if (remove) {
+                        tree.delete(key);
+                        expected.remove(key);
+                    } else {
+                        tree.insert(key, getValue(i));
+                        expected.put(key, getValue(i));
+                    }
+                }
+            }
+
+            for (var entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), tree.search(entry.getKey()));
+            }
+        }
+        assertLeafChain(expected);
+    }
+
+    private static Key familyKey(int family, int member) {
+        return new Key(ByteBuffer.allocate(2 + 200 + 2).putShort((short) family)
+                .position(2 + 200).putShort((short) member).array());
+    }
+
+    @Test
+    void testNodeCacheSkipsInnerPages() {
+        var uncachedDumper = new TesterDumper();
+        var uncached = new BTree(uncachedDumper, 0);
+        for (int i = 0; i < 10_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+            uncached.insert(getKey(i), getValue(i));
+        }
+
+        dumper.reads = 0;
+        uncachedDumper.reads = 0;
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 10_000; i += 100) {
+                assertEquals(getValue(i), tree.search(getKey(i)));
+                assertEquals(getValue(i), uncached.search(getKey(i)));
+            }
+        }
+        assertTrue(dumper.reads < uncachedDumper.reads);
+
+        for (int i = 0; i < 10_000; i += 2) {
+            tree.delete(getKey(i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 2 == 0)
+                assertNull(tree.search(getKey(i)));
+            else
+                assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+    }
+
+    @Test
+    void testApplyBatch() {
+        Map<Key, Value> testTree = new TreeMap<>();
+
+        for (int round = 0; round < 50; round++) {
+            List<Mutation> batch = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                var key = getKey(state.getRandom().nextInt(5_000));
+                if (state.getRandom().nextInt(3) == 0) {
+                    batch.add(Mutation.delete(key));
+                    testTree.remove(key);
+                } else {
+                    var value = getValue(state.stringGen(state.getRandom().nextInt(Value.MAX_VALUE_SIZE - 1)));
+                    batch.add(Mutation.put(key, value));
+                    testTree.put(key, value);
+                }
+            }
+            tree.apply(batch);
+        }
+
+        for (int i = 0; i < 5_000; i++) {
+            assertEquals(testTree.get(getKey(i)), tree.search(getKey(i)));
+        }
+
+        tree.apply(testTree.keySet().stream().map(Mutation::delete).toList());
+        for (var key : testTree.keySet()) {
+            assertNull(tree.search(key));
+        }
+        assertEquals(0, dumper.pages.size());
+    }
+
+    @Test
+    void testApplyBatchWritesFewerPages() {
+        var singleDumper = new TesterDumper();
+        var single = new BTree(singleDumper);
+        for (int i = 0; i < 1_000; i++) {
+            single.insert(getKey(i), getValue(i));
+        }
+
+        for (int from = 0; from < 1_000; from += 100) {
+            List<Mutation> batch = new ArrayList<>();
+            for (int i = from; i < from + 100; i++) {
+                batch.add(Mutation.put(getKey(i), getValue(i)));
+            }
+            tree.apply(batch);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(getValue(i), tree.search(getKey(i)));
+        }
+        assertTrue(dumper.nextIndex * 10 < singleDumper.nextIndex);
+    }
+
+    @Test
+    void testScanRange() {
+        TreeMap<Key, Value> testTree = new TreeMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            var key = getKey(state.stringGen(1 + state.getRandom().nextInt(20)));
+            var value = getValue(state.stringGen(state.getRandom().nextInt(100)));
+            testTree.put(key, value);
+            tree.insert(key, value);
+        }
+
+        assertScan(testTree, tree.scan(null, null));
+        for (int round = 0; round < 20; round++) {
+            var from = getKey(state.stringGen(2));
+            var to = getKey(state.stringGen(2));
+            if (from.compareTo(to) > 0) {
+                var tmp = from;
+                from = to;
+                to = tmp;
+            }
+            assertScan(testTree.subMap(from, true, to, false), tree.scan(from, to));
+            assertScan(testTree.tailMap(from, true), tree.scan(from, null));
+            assertScan(testTree.headMap(to, false), tree.scan(null, to));
+        }
+    }
+
+    @Test
+    void testScanPrefix() {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey("other:" + i), getValue(i));
+            var key = getKey("sensor:" + i);
+            tree.insert(key, getValue(i));
+            expected.put(key, getValue(i));
+        }
+
+        assertScan(expected, tree.scanPrefix(new Key("sensor:".getBytes())));
+        assertFalse(tree.scanPrefix(new Key("missing".getBytes())).hasNext());
+        assertFalse(new BTree(new TesterDumper()).scan(null, null).hasNext());
+    }
+
+    @Test
+    void testScanSeesChangesAhead() {
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        var iterator = tree.scan(null, null);
+        assertEquals(getKey(0), iterator.next().getKey());
+        tree.insert(getKey(-5), getValue(5)); // sorts after every other key
+        tree.delete(getKey(1_000));
+
+        List<Key> rest = new ArrayList<>();
+        iterator.forEachRemaining(entry -> rest.add(entry.getKey()));
+        assertEquals(1_999, rest.size());
+        assertFalse(rest.contains(getKey(1_000)));
+        assertEquals(getKey(-5), rest.getLast());
+    }
+
+    @Test
+    void testPinnedReaderKeepsFreedPages() {
+        for (int i = 0; i < 2_000; i++) {
+            tree.insert(getKey(i), getValue(i));
+        }
+        int oldRoot = tree.getRoot();
+        var epoch = tree.getEpochs().pin();
+        for (int i = 0; i < 2_000; i++) {
+            tree.delete(getKey(i));
+        }
+
+        assertTrue(dumper.pages.containsKey(oldRoot));
+        assertFalse(tree.readNode(oldRoot).isLeaf());
+        tree.getEpochs().unpin(epoch);
+        tree.reclaim();
+        assertTrue(dumper.pages.isEmpty());
+    }
+
+    @Test
+    void testLeafChainFollowsKeyOrder() {
+        TreeMap<Key, Value> testTree = new TreeMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            var key = getKey(state.getRandom().nextInt(10_000));
+            testTree.put(key, getValue(i));
+            tree.insert(key, getValue(i));
+        }
+        for (int i = 0; i < 2_000; i++) {
+            var key = getKey(state.getRandom().nextInt(10_000));
+            testTree.remove(key);
+            tree.delete(key);
+        }
+        List<Mutation> batch = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            var key = getKey(state.getRandom().nextInt(10_000));
+            if (i % 3 == 0) {
+                testTree.remove(key);
+                batch.add(Mutation.delete(key));
+            } else {
+                testTree.put(key, getValue(i));
+                batch.add(Mutation.put(key, getValue(i)));
+            }
+        }
+        tree.apply(batch);
+
+        assertLeafChain(testTree);
+        assertScan(testTree, tree.scan(null, null));
+    }
+
+    @Test
+    void testUnlinkedLeavesAreRebuilt() {
+        TreeMap<Key, Value> testTree = new TreeMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            testTree.put(getKey(i), getValue(i));
+            tree.insert(getKey(i), getValue(i));
+        }
+        for (var entry : dumper.pages.entrySet()) {
+            Node leaf = Node.decode(entry.getValue());
+            if (!leaf.isLeaf())
+                continue;
+            var legacy = ByteBuffer.allocate(PagingConstants.DEFAULT_PAGE_SIZE); // sequential leaf layout before the next leaf ref was added
+            legacy.put((byte) 1).putShort((short) leaf.size());
+            for (int i = 0; i < leaf.size(); i++) {
+                legacy.putShort((short) leaf.getKey(i).getKeyLength()).put(leaf.getKey(i).key());
+            }
+            for (int i = 0; i < leaf.size(); i++) {
+                legacy.putShort((short) leaf.getValue(i).value().length).put(leaf.getValue(i).value());
+            }
+            entry.setValue(legacy.rewind());
+        }
+        var oldPages = new HashSet<>(dumper.pages.keySet());
+
+        tree = new BTree(dumper);
+
+        assertTrue(Collections.disjoint(oldPages, dumper.pages.keySet()));
+        assertLeafChain(testTree);
+        assertScan(testTree, tree.scan(null, null));
+    }
+
+    @Test
+    void testSnapshotKeepsOldState() {
+        TreeMap<Key, Value> before = new TreeMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            before.put(getKey(i), getValue(i));
+            tree.insert(getKey(i), getValue(i));
+        }
+
+        try (var snapshot = tree.snapshot()) {
+            for (int i = 0; i < 3_000; i += 2) {
+                tree.delete(getKey(i)); // freed pages would fail on read if they were handed back
+            }
+            for (int i = 3_000; i < 4_000; i++) {
+                tree.insert(getKey(i), getValue(-i));
+            }
+
+            assertEquals(getValue(0), snapshot.search(getKey(0)));
+            assertNull(snapshot.search(getKey(3_500)));
+            assertScan(before, snapshot.scan(null, null));
+            assertNull(tree.search(getKey(0)));
+        }
+
+        int pages = dumper.pages.size();
+        tree.insert(getKey(-1), getValue(1)); // first change after the snapshot is gone reclaims its pages
+        assertTrue(dumper.pages.size() < pages);
+    }
+
+    @Test
+    void testClosedSnapshotFailsToRead() {
+        tree.insert(getKey(1), getValue(1));
+        var snapshot = tree.snapshot();
+        var entries = snapshot.scan(null, null);
+        snapshot.close();
+        assertThrows(IllegalStateException.class, () -> snapshot.search(getKey(1)));
+        assertThrows(IllegalStateException.class, entries::next);
+    }
+
+    @Test
+    void testBulkLoad() {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            expected.put(getKey(state.stringGen(1 + state.getRandom().nextInt(20))), getValue(state.stringGen(state.getRandom().nextInt(60))));
+        }
+
+        tree.bulkLoad(expected.entrySet().iterator(), 0.8);
+
+        assertEquals(dumper.nextIndex, dumper.pages.size()); // every page written once, none freed
+        assertLeafChain(expected);
+        assertScan(expected, tree.scan(null, null));
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), tree.search(entry.getKey()));
+        }
+
+        var inserted = getKey("~after load");
+        tree.insert(inserted, getValue(1));
+        expected.put(inserted, getValue(1));
+        for (var key : new ArrayList<>(expected.keySet()).subList(0, 10_000)) {
+            tree.delete(key);
+            expected.remove(key);
+        }
+        assertLeafChain(expected);
+        assertScan(expected, tree.scan(null, null));
+    }
+
+    @Test
+    void testBulkLoadPacksPages() {
+        TreeMap<Key, Value> entries = new TreeMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            entries.put(getKey(i), getValue(i));
+        }
+        var insertedDumper = new TesterDumper();
+        var inserted = new BTree(insertedDumper);
+        for (var entry : entries.entrySet()) {
+            inserted.insert(entry.getKey(), entry.getValue());
+        }
+
+        tree.bulkLoad(entries.entrySet().iterator(), 1.0);
+        assertTrue(dumper.pages.size() < insertedDumper.pages.size());
+    }
+
+    @Test
+    void testBulkLoadRejectsUnsortedInput() {
+        var entries = List.of(
+                Map.entry(getKey(1), getValue(1)),
+                Map.entry(getKey(3), getValue(3)),
+                Map.entry(getKey(2), getValue(2)));
+
+        assertThrows(IllegalArgumentException.class, () -> tree.bulkLoad(entries.iterator(), 0.9));
+        assertTrue(dumper.pages.isEmpty());
+        assertNull(tree.search(getKey(1)));
+
+        tree.insert(getKey(1), getValue(1));
+        assertThrows(IllegalStateException.class, () -> tree.bulkLoad(Collections.emptyIterator(), 0.9));
+    }
+
+    @Test
+    void testLargeValuesGoToOverflowPages() throws IOException {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 300; i++) {
+            var value = i % 10 == 0 ? largeValue(i, Value.MAX_VALUE_SIZE + 1 + i * 100) : getValue(i);
+            tree.insert(getKey(i), value);
+            expected.put(getKey(i), value);
+        }
+        var huge = largeValue(-1, 5 * 1024 * 1024); // more data pages than one index page lists
+        tree.insert(getKey(1_000), huge);
+        expected.put(getKey(1_000), huge);
+
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), tree.search(entry.getKey()));
+        }
+        assertScan(expected, tree.scan(null, null));
+        try (var in = tree.searchStream(getKey(1_000))) {
+            assertArrayEquals(huge.value(), in.readAllBytes());
+        }
+        try (var in = tree.searchStream(getKey(1))) {
+            assertArrayEquals(getValue(1).value(), in.readAllBytes());
+        }
+        assertNull(tree.searchStream(getKey(-1)));
+
+        tree.insert(getKey(0), getValue(0));
+        tree.insert(getKey(10), largeValue(10, 100_000));
+        expected.put(getKey(0), getValue(0));
+        expected.put(getKey(10), largeValue(10, 100_000));
+        assertScan(expected, tree.scan(null, null));
+        for (var key : expected.keySet()) {
+            tree.delete(key);
+        }
+        assertTrue(dumper.pages.isEmpty());
+    }
+
+    @Test
+    void testOpenStreamKeepsOverflowPages() throws IOException {
+        var value = largeValue(7, 50_000);
+        tree.insert(getKey(1), value);
+        var in = tree.searchStream(getKey(1));
+        var head = in.readNBytes(100);
+
+        tree.delete(getKey(1));
+        assertNull(tree.search(getKey(1)));
+        var rest = in.readAllBytes();
+        assertArrayEquals(value.value(), ByteBuffer.allocate(value.value().length).put(head).put(rest).array());
+        in.close();
+        tree.reclaim();
+        assertTrue(dumper.pages.isEmpty());
+    }
+
+    @Test
+    void testBatchAndBulkLoadWriteOverflowPages() {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 2_000; i++) {
+            expected.put(getKey(i), i % 7 == 0 ? largeValue(i, 2_000 + i) : getValue(i));
+        }
+        tree.bulkLoad(expected.entrySet().iterator(), 0.9);
+        assertEquals(dumper.nextIndex, dumper.pages.size());
+        assertScan(expected, tree.scan(null, null));
+
+        List<Mutation> batch = new ArrayList<>();
+        for (int i = 0; i < 2_000; i += 3) {
+            if (i % 2 == 0) {
+                batch.add(Mutation.delete(getKey(i)));
+                expected.remove(getKey(i));
+            } else {
+                batch.add(Mutation.put(getKey(i), largeValue(-i, 700)));
+                expected.put(getKey(i), largeValue(-i, 700));
+            }
+        }
+        tree.apply(batch);
+        assertLeafChain(expected);
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), tree.search(entry.getKey()));
+        }
+
+        tree.apply(expected.keySet().stream().map(Mutation::delete).toList());
+        assertTrue(dumper.pages.isEmpty());
+    }
+
+    @Test
+    void testRecoveryKeepsOverflowPages() {
+        for (int i = 0; i < 500; i++) {
+            tree.insert(getKey(i), i % 5 == 0 ? largeValue(i, 10_000) : getValue(i));
+        }
+
+        var recovered = new BitSet();
+        var crashed = new TesterDumper() {
+            @Override
+            public boolean needsRecovery() {
+                return true;
+            }
+
+            @Override
+            public void recover(BitSet usedPages) {
+                recovered.or(usedPages);
+            }
+        };
+        crashed.pages.putAll(dumper.pages);
+        crashed.root = dumper.root;
+        var reopened = new BTree(crashed);
+
+        assertEquals(dumper.pages.keySet(), recovered.stream().boxed().collect(Collectors.toSet()));
+        assertEquals(largeValue(495, 10_000), reopened.search(getKey(495)));
+    }
+
+    @Test
+    void testCompressedValues() throws IOException {
+        var compressed = new BTree(dumper, BTree.DEFAULT_NODE_CACHE_SIZE, Compression.LZ4);
+        var plainDumper = new TesterDumper();
+        var plain = new BTree(plainDumper);
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            var value = i % 100 == 0
+                    ? largeValue(i, 3_000) // does not compress, goes to overflow pages
+                    : new Value(("{\"sensor\":" + i % 17 + ",\"reading\":\"" + "ok,".repeat(i % 300) + "\"}").getBytes());
+            compressed.insert(getKey(i), value);
+            plain.insert(getKey(i), value);
+            expected.put(getKey(i), value);
+        }
+
+        assertTrue(dumper.pages.size() < plainDumper.pages.size() / 2);
+        assertScan(expected, compressed.scan(null, null));
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), compressed.search(entry.getKey()));
+        }
+        try (var in = compressed.searchStream(getKey(299))) {
+            assertArrayEquals(expected.get(getKey(299)).value(), in.readAllBytes());
+        }
+
+        var metrics = new MetricsRegistry();
+        compressed.registerMetrics(metrics);
+        var snapshot = metrics.snapshot();
+        assertTrue(snapshot.value("btree.compression.values") > 2_000);
+        assertTrue(snapshot.value("btree.compression.bytes.stored") < snapshot.value("btree.compression.bytes.raw"));
+        assertTrue(snapshot.value("btree.compression.skipped") >= 30);
+
+        var reopened = new BTree(dumper); // reads compressed values without compressing new ones
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), reopened.search(entry.getKey()));
+        }
+        reopened.apply(expected.keySet().stream().map(Mutation::delete).toList());
+        assertTrue(dumper.pages.isEmpty());
+    }
+
+    @Test
+    void testLargerPages() {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            expected.put(getKey(state.stringGen(1 + state.getRandom().nextInt(20))), getValue(state.stringGen(state.getRandom().nextInt(60))));
+        }
+        var huge = largeValue(-1, 1024 * 1024);
+        var smallPages = new BTree(new TesterDumper());
+        expected.forEach(smallPages::insert);
+        smallPages.insert(getKey(-1), huge);
+
+        for (int pageSize : new int[]{ 16 * 1024, PagingConstants.MAX_PAGE_SIZE }) {
+            dumper = new TesterDumper(pageSize);
+            tree = new BTree(dumper);
+            expected.forEach(tree::insert);
+            tree.insert(getKey(-1), huge);
+            assertTrue(tree.depth() < smallPages.depth());
+            assertEquals(huge, tree.search(getKey(-1)));
+
+            var entries = new TreeMap<>(expected);
+            entries.put(getKey(-1), huge);
+            for (var key : new ArrayList<>(entries.keySet()).subList(0, 10_000)) {
+                tree.delete(key);
+                entries.remove(key);
+            }
+            assertLeafChain(entries);
+            assertScan(entries, tree.scan(null, null));
+
+            entries.keySet().forEach(tree::delete);
+            assertTrue(dumper.pages.size() <= 1);
+
+            dumper = new TesterDumper(pageSize);
+            tree = new BTree(dumper);
+            tree.bulkLoad(expected.entrySet().iterator(), 0.9);
+            assertLeafChain(expected);
+            assertScan(expected, tree.scan(null, null));
+        }
+    }
+
+    private static Value largeValue(int seed, int size) {
+        var bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return new Value(bytes);
+    }
+
+    private void assertLeafChain(Map<Key, Value> expected) {
+        Node node = tree.readNode(tree.getRoot());
+        while (!node.isLeaf()) {
+            node = tree.readNode(node.getChild(0));
+        }
+
+        List<Key> keys = new ArrayList<>();
+        while (true) {
+            for (int i = 0; i < node.size(); i++) {
+                keys.add(node.getKey(i));
+            }
+            if (node.getNextLeaf() == PagingConstants.UNDEFINED_REF)
+                break;
+            node = tree.readNode(node.getNextLeaf());
+        }
+
+        assertEquals(Key.NullKey(), keys.removeFirst());
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+    }
+
+    private static void assertScan(Map<Key, Value> expected, Iterator<Map.Entry<Key, Value>> actual) {
+        for (var entry : expected.entrySet()) {
+            assertTrue(actual.hasNext());
+            var next = actual.next();
+            assertEquals(entry.getKey(), next.getKey());
+            assertEquals(entry.getValue(), next.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
 }
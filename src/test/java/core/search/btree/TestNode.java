@@ -5,6 +5,7 @@ import core.search.Value;
 import core.search.btree.utils.RandomState;
 import org.junit.jupiter.api.*;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -43,7 +44,7 @@ public class TestNode {
         node.leafDelete(getKey(1));
 
         assertNull(node.getKeyValue(getKey(1)));
-        assertEquals(3, node.getKeys().size());
+        assertEquals(3, node.size());
 
         assertTrue(node.leafDelete(getKey(2)));
         assertFalse(node.leafDelete(getKey(2)));
@@ -85,7 +86,7 @@ public class TestNode {
         node.leafUpdate(Key.NullKey(), Value.NullValue());
         Map<String, String> map = new TreeMap<>();
 
-        while(node.nodeSize() <= PagingConstants.PAGE_SIZE) {
+        while(node.nodeSize() <= PagingConstants.DEFAULT_PAGE_SIZE) {
             String key = state.stringGen(100);
             String value = state.stringGen(300);
             node.leafUpdate(getKey(key), getValue((value)));
@@ -99,7 +100,7 @@ public class TestNode {
             assertTrue(split.stream().anyMatch(node1 -> node1.leafDelete(getKey(kv.getKey()))));
         }
         assertTrue(split.stream().anyMatch(s -> s.leafDelete(Key.NullKey())));
-        assertTrue(split.stream().allMatch(node1 -> node1.getKeys().isEmpty()));
+        assertTrue(split.stream().allMatch(Node::isEmpty));
     }
 
     @Test
@@ -112,16 +113,212 @@ public class TestNode {
 
         var buff = Node.encode(node);
 
-        assertEquals(PagingConstants.PAGE_SIZE, buff.capacity());
+        assertEquals(PagingConstants.DEFAULT_PAGE_SIZE, buff.capacity());
 
         Node newNode = Node.decode(buff);
 
-        assertTrue(newNode.getKeys().size() == newNode.getValues().size());
-        assertEquals(node.getKeys().size(), newNode.getKeys().size());
+        assertEquals(node.size(), newNode.size());
 
-        for (int i = 0; i < node.getKeys().size(); i++) {
-            assertEquals(0, node.getKeys().get(i).compareTo(newNode.getKeys().get(i)));
-            assertEquals(node.getValues().get(i), newNode.getValues().get(i));
+        for (int i = 0; i < node.size(); i++) {
+            assertEquals(0, node.getKey(i).compareTo(newNode.getKey(i)));
+            assertEquals(node.getValue(i), newNode.getValue(i));
+        }
+    }
+
+    @Test
+    void testDecodedNodeChangesInPlace() {
+        Node node = new Node(true);
+        Map<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            Key key = getKey(state.stringGen(1 + i % 20));
+            Value value = getValue(state.stringGen(i % 30));
+            node.leafUpdate(key, value);
+            expected.put(key, value);
+        }
+
+        Node decoded = Node.decode(Node.encode(node));
+        int i = 0;
+        for (var entry : expected.entrySet()) {
+            Value value = getValue(state.stringGen(i++ % 3 == 0 ? 40 : 5)); // grows some values, shrinks the rest
+            decoded.leafUpdate(entry.getKey(), value);
+            entry.setValue(value);
+        }
+        Key removed = expected.keySet().iterator().next();
+        assertTrue(decoded.leafDelete(removed));
+        expected.remove(removed);
+
+        for (Node n : new Node[]{ decoded, Node.decode(Node.encode(decoded)), decoded.copy() }) {
+            assertEquals(expected.size(), n.size());
+            i = 0;
+            for (var entry : expected.entrySet()) {
+                assertEquals(i, n.binarySearch(entry.getKey()));
+                assertEquals(entry.getKey(), n.getKey(i++));
+                assertEquals(entry.getValue(), n.getKeyValue(entry.getKey()));
+            }
+            assertNull(n.getKeyValue(removed));
+            assertEquals(-1, n.binarySearch(Key.NullKey()));
+        }
+    }
+
+    @Test
+    void testFreedBytesAreReused() {
+        Node node = new Node(true);
+        Map<Key, Value> expected = new TreeMap<>();
+        for (int i = 0; node.nodeSize() < PagingConstants.DEFAULT_PAGE_SIZE * 3 / 4; i++) {
+            node.leafUpdate(getKey(i), getValue(state.stringGen(40)));
+            expected.put(getKey(i), getValue(""));
+        }
+        int size = node.nodeSize();
+
+        for (int round = 0; round < 20; round++) { // every round frees a quarter of the page and fills it again
+            for (var key : expected.keySet()) {
+                Value value = getValue(state.stringGen(round % 2 == 0 ? 10 : 40));
+                node.leafUpdate(key, value);
+                expected.put(key, value);
+            }
+            node = Node.decode(Node.encode(node));
+        }
+
+        assertEquals(size, node.nodeSize());
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), node.getKeyValue(entry.getKey()));
+        }
+    }
+
+    @Test
+    void testKeysShareThePrefix() {
+        Node node = new Node(true);
+        Map<Key, Value> expected = new TreeMap<>();
+        int fullSize = 0;
+        for (int i = 0; i < 40; i++) {
+            Key key = Key.from("sensor:temp:" + (1000 + i));
+            node.leafUpdate(key, getValue(i));
+            expected.put(key, getValue(i));
+            fullSize += key.getKeyLength();
+        }
+        assertTrue(node.nodeSize() < fullSize, "keys are stored without their common prefix");
+
+        Node other = new Node(true);
+        for (int i = 0; i < 40; i++) {
+            Key key = Key.from("sensor:co2:" + (1000 + i));
+            other.leafUpdate(key, getValue(-i));
+            expected.put(key, getValue(-i));
+        }
+        int mergedSize = Node.mergedSize(other, node);
+        Node merged = Node.decode(Node.encode(node.mergeTwoChildren(other, node)));
+        assertEquals(mergedSize, merged.nodeSize());
+
+        assertEquals(expected.size(), merged.size());
+        int i = 0;
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), merged.getKey(i));
+            assertEquals(i++, merged.binarySearch(entry.getKey()));
+            assertEquals(entry.getValue(), merged.getKeyValue(entry.getKey()));
+        }
+        assertEquals(-1, merged.binarySearch(Key.prefix("sensor")));
+        assertEquals(-1, merged.binarySearch(Key.prefix("a")));
+        assertEquals(-(expected.size() + 1), merged.binarySearch(Key.prefix("z")));
+        assertEquals(-41, merged.binarySearch(Key.from("sensor:co2:2")));
+
+        merged.leafUpdate(Key.prefix("b"), getValue(1)); // shortens the prefix to nothing
+        assertEquals(getValue(1), merged.getKeyValue(Key.prefix("b")));
+        assertEquals(getValue(-3), merged.getKeyValue(Key.from("sensor:co2:1003")));
+    }
+
+    @Test
+    void testSequentialPagesAreRead() {
+        var leaf = ByteBuffer.allocate(PagingConstants.DEFAULT_PAGE_SIZE); // layout before slotted pages
+        leaf.put((byte) 2).putShort((short) 2).putInt(17);
+        leaf.putShort((short) 1).put((byte) 0).putShort((short) 1).put((byte) 5);
+        leaf.putShort((short) 0).putShort((short) 3).put(new byte[]{ 7, 8, 9 });
+        var inner = ByteBuffer.allocate(PagingConstants.DEFAULT_PAGE_SIZE);
+        inner.put((byte) 0).putShort((short) 2);
+        inner.putShort((short) 1).put((byte) 0).putShort((short) 1).put((byte) 5);
+        inner.putInt(10).putInt(20);
+
+        Node decodedLeaf = Node.decode(leaf.rewind());
+        assertEquals(17, decodedLeaf.getNextLeaf());
+        assertEquals(Value.NullValue(), decodedLeaf.getKeyValue(Key.NullKey()));
+        assertEquals(new Value(new byte[]{ 7, 8, 9 }), decodedLeaf.getKeyValue(new Key(new byte[]{ 5 })));
+
+        Node decodedInner = Node.decode(inner.rewind());
+        assertFalse(decodedInner.isLeaf());
+        assertEquals(10, decodedInner.getChildRef(new Key(new byte[]{ 4 })));
+        assertEquals(20, decodedInner.getChildRef(new Key(new byte[]{ 6 })));
+        assertEquals(20, Node.decode(Node.encode(decodedInner)).getChild(1));
+    }
+
+    @Test
+    void testLeafKeepsNextLeafRef() {
+        Node node = new Node(true);
+        node.leafUpdate(Key.NullKey(), Value.NullValue());
+        node.setNextLeaf(17);
+
+        assertEquals(17, Node.decode(Node.encode(node)).getNextLeaf());
+
+        var legacy = ByteBuffer.allocate(PagingConstants.DEFAULT_PAGE_SIZE);
+        legacy.put((byte) 1).putShort((short) 0).rewind(); // leaf page written before leaves were linked
+        var decoded = Node.decode(legacy);
+        assertTrue(decoded.isLeaf());
+        assertEquals(Node.UNLINKED_REF, decoded.getNextLeaf());
+    }
+
+    @Test
+    void testValueFlagsStayWithTheValue() {
+        Node node = new Node(true);
+        node.leafUpdate(Key.NullKey(), Value.NullValue());
+        for (int i = 0; i < 400; i++) {
+            node.leafUpdate(getKey(i), getValue(i), (i % 3 == 0 ? Node.OVERFLOW : 0) | (i % 5 == 0 ? Node.COMPRESSED : 0));
+        }
+        node.leafUpdate(getKey(3), getValue("shorter, no flags"));
+        node.leafUpdate(getKey(4), getValue(-4), Node.OVERFLOW);
+
+        var parts = Node.split(node);
+        assertTrue(parts.size() > 1);
+        for (var part : parts) {
+            Node decoded = Node.decode(Node.encode(part));
+            for (int i = 0; i < decoded.size(); i++) {
+                int key = decoded.getKey(i).equals(Key.NullKey()) ? -1 : getInt(decoded.getKey(i).key());
+                assertEquals(key == 4 || key != 3 && key % 3 == 0, decoded.isOverflow(i));
+                assertEquals(key != 3 && key % 5 == 0, decoded.isCompressed(i));
+                if (key > 4)
+                    assertEquals(getValue(key), decoded.getValue(i));
+            }
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> node.leafUpdate(getKey(1), new Value(new byte[Value.MAX_VALUE_SIZE + 1])));
+    }
+
+    @Test
+    void testLargePagesFitMoreEntries() {
+        for (int pageSize : new int[]{ 16 * 1024, PagingConstants.MAX_PAGE_SIZE }) {
+            Node empty = Node.decode(Node.encode(new Node(true, pageSize)), pageSize);
+            empty.leafUpdate(getKey(1), getValue(1));
+            assertEquals(getValue(1), empty.getValue(0));
+
+            Node node = new Node(true, pageSize);
+            int entries = 0;
+            while (node.nodeSize() <= PagingConstants.DEFAULT_PAGE_SIZE * 2) {
+                node.leafUpdate(getKey(entries), getValue(entries));
+                entries++;
+            }
+            assertEquals(1, Node.split(node).size());
+
+            var buff = Node.encode(node);
+            assertEquals(pageSize, buff.capacity());
+            Node decoded = Node.decode(buff, pageSize);
+            assertEquals(entries, decoded.size());
+            for (int i = 0; i < entries; i++) {
+                assertEquals(getValue(i), decoded.getKeyValue(getKey(i)));
+            }
+
+            while (decoded.nodeSize() <= pageSize) {
+                decoded.leafUpdate(getKey(entries), getValue(entries));
+                entries++;
+            }
+            var parts = Node.split(decoded);
+            assertTrue(parts.size() > 1);
+            assertTrue(parts.stream().allMatch(part -> Node.encode(part).capacity() == pageSize));
         }
     }
 }
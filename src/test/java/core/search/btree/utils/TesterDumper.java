@@ -4,19 +4,28 @@ import core.page.PageDumper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.TreeMap;
 
-import static core.page.PagingConstants.PAGE_SIZE;
+import static core.page.PagingConstants.DEFAULT_PAGE_SIZE;
 import static core.page.PagingConstants.UNDEFINED_REF;
 
 public class TesterDumper implements PageDumper {
     public final Map<Integer, ByteBuffer> pages;
     public int nextIndex;
+    public int reads;
+    public int root = UNDEFINED_REF;
+    private final int pageSize;
 
     public TesterDumper() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    public TesterDumper(int pageSize) {
         pages = new TreeMap<>();
         nextIndex = 0;
+        this.pageSize = pageSize;
     }
 
     @Override
@@ -24,12 +33,13 @@ public class TesterDumper implements PageDumper {
         if (pages.isEmpty()) throw new RuntimeException("trying to get page from empty dump");
         if (!pages.containsKey(idx)) throw new RuntimeException("trying to get non-allocated or freed page");
 
+        reads++;
         return pages.get(idx);
     }
 
     @Override
     public int set(ByteBuffer bytes) {
-        if (bytes.capacity() > PAGE_SIZE) throw new RuntimeException("byte buffer overflow");
+        if (bytes.capacity() > pageSize) throw new RuntimeException("byte buffer overflow");
 
         int newIdx = nextIndex++;
 
@@ -37,6 +47,11 @@ public class TesterDumper implements PageDumper {
         return newIdx;
     }
 
+    @Override
+    public int pageSize() {
+        return pageSize;
+    }
+
     @Override
     public void delete(int idx) {
         if (pages.isEmpty()) throw new RuntimeException("trying to delete page from empty dump");
@@ -46,15 +61,33 @@ public class TesterDumper implements PageDumper {
     }
 
     @Override
-    public void setRoot(int idx) {
+    public void update(int idx, int offset, ByteBuffer bytes) {
+        if (!pages.containsKey(idx)) throw new RuntimeException("trying to update non-allocated or freed page");
 
+        pages.get(idx).put(offset, bytes.duplicate().rewind(), 0, bytes.limit());
+    }
+
+    @Override
+    public void setRoot(int idx) {
+        root = idx;
     }
 
     @Override
     public int getRoot() {
-        return UNDEFINED_REF;
+        return root;
+    }
+
+    @Override
+    public void checkpoint() {}
+
+    @Override
+    public boolean needsRecovery() {
+        return false;
     }
 
+    @Override
+    public void recover(BitSet usedPages) {}
+
     @Override
     public void close() {}
 
@@ -0,0 +1,97 @@
+package core.sort;
+
+import core.search.Key;
+import core.search.Value;
+import core.search.btree.utils.RandomState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static core.search.btree.utils.ByteArrayWrapper.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExternalSorter {
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void testSpilledRunsAreMerged() throws IOException {
+        var state = new RandomState(7);
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        List<Map.Entry<Key, Value>> input = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            var key = getKey(state.stringGen(1 + state.getRandom().nextInt(3))); // many repeated keys
+            var value = getValue(i);
+            expected.put(key, value);
+            input.add(Map.entry(key, value));
+        }
+
+        try (var sorter = new ExternalSorter(tempDirectory, 64 * 1024)) {
+            var sorted = sorter.sort(input.iterator());
+            assertTrue(sorter.runCount() > 1);
+
+            for (var entry : expected.entrySet()) {
+                assertTrue(sorted.hasNext());
+                var next = sorted.next();
+                assertEquals(entry.getKey(), next.getKey());
+                assertEquals(entry.getValue(), next.getValue()); // the last value of a key wins
+            }
+            assertFalse(sorted.hasNext());
+        }
+        try (var files = Files.list(tempDirectory)) {
+            assertEquals(0, files.count()); // runs are removed on close
+        }
+    }
+
+    @Test
+    void testManyRunsAreMergedInPasses() throws IOException {
+        TreeMap<Key, Value> expected = new TreeMap<>();
+        List<Map.Entry<Key, Value>> input = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            var key = getKey(i * 7_919 % 10_000); // every key comes three times
+            var value = getValue(i);
+            expected.put(key, value);
+            input.add(Map.entry(key, value));
+        }
+
+        try (var sorter = new ExternalSorter(tempDirectory, 16 * 1024)) {
+            var sorted = sorter.sort(input.iterator());
+            assertTrue(sorter.runCount() > 10 * sorter.maxOpenRuns());
+            try (var files = Files.list(tempDirectory)) {
+                assertTrue(files.count() <= sorter.maxOpenRuns()); // only the runs of the last pass are left
+            }
+
+            for (var entry : expected.entrySet()) {
+                var next = sorted.next();
+                assertEquals(entry.getKey(), next.getKey());
+                assertEquals(entry.getValue(), next.getValue());
+            }
+            assertFalse(sorted.hasNext());
+        }
+        try (var files = Files.list(tempDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testSmallInputStaysInMemory() throws IOException {
+        try (var sorter = new ExternalSorter(tempDirectory)) {
+            var sorted = sorter.sort(List.of(
+                    Map.entry(getKey(3), getValue(3)),
+                    Map.entry(getKey(1), getValue(1)),
+                    Map.entry(getKey(3), getValue(33))).iterator());
+
+            assertEquals(0, sorter.runCount());
+            assertEquals(getKey(1), sorted.next().getKey());
+            assertEquals(getValue(33), sorted.next().getValue());
+            assertFalse(sorted.hasNext());
+        }
+    }
+}